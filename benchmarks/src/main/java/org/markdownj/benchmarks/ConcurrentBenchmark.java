@@ -0,0 +1,97 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.markdownj.MarkdownProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Many threads converting documents with one shared processor, as a server
+ * would.  Compare the throughput with one thread against four and against one
+ * per available CPU to see how well conversion scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+    @Param({"MarkdownTest/Markdown Documentation - Syntax.text", "snippets.txt"})
+    public String document;
+
+    private String text;
+    private MarkdownProcessor processor;
+
+    @Setup
+    public void setUp() throws IOException {
+        text = Documents.read(document);
+        processor = new MarkdownProcessor();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String oneThread() {
+        return processor.markdown(text);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String fourThreads() {
+        return processor.markdown(text);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String maxThreadsSharedProcessor() {
+        return processor.markdown(text);
+    }
+}
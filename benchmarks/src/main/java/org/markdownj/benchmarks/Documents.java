@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Random;
+
+/**
+ * The documents the benchmarks convert: files from the test corpus, and
+ * generated documents of any size which use every kind of Markdown block and span.
+ */
+final class Documents {
+
+    private Documents() {
+    }
+
+    /**
+     * @param resource the path of a file under core/src/test/resources.
+     */
+    static String read(String resource) throws IOException {
+        InputStream in = Documents.class.getResourceAsStream("/" + resource);
+        if (in == null) {
+            throw new IOException("no such document: " + resource);
+        }
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, n);
+            }
+            return text.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Generate a document of about <code>size</code> characters.  The same size
+     * and seed always give the same document.  No one block grows with the size
+     * of the document, so time should grow with it in proportion.
+     */
+    static String generate(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(size + 1024);
+        int n = 0;
+        while (text.length() < size) {
+            n++;
+            switch (random.nextInt(10)) {
+                case 0:
+                    text.append("## Section ").append(n).append("\n\n");
+                    break;
+                case 1:
+                    text.append("* item ").append(n).append(" with *emphasis*\n")
+                        .append("* item with `code` and a [link](http://example.com/").append(n).append(")\n")
+                        .append("    * nested item\n")
+                        .append("    * another nested item\n\n");
+                    break;
+                case 2:
+                    text.append("1. first\n2. second, **strong**\n3. third\n\n");
+                    break;
+                case 3:
+                    text.append("> A quotation, with *emphasis*\n> over two lines.\n>\n> > And a nested one.\n\n");
+                    break;
+                case 4:
+                    text.append("    int x = ").append(n).append(";\n    return x < 10 && x > 0;\n\n");
+                    break;
+                case 5:
+                    text.append("<div class=\"note\">\nNote ").append(n).append(" &amp; more.\n</div>\n\n");
+                    break;
+                case 6:
+                    text.append("Text with a [reference][r").append(n).append("] and an ![image](/img/")
+                        .append(n).append(".png \"Image\").\n\n")
+                        .append("[r").append(n).append("]: http://example.com/r").append(n)
+                        .append("  \"Reference ").append(n).append("\"\n\n");
+                    break;
+                case 7:
+                    text.append("* * *\n\n");
+                    break;
+                default:
+                    text.append("A paragraph ").append(n)
+                        .append(" with *emphasis*, __strong text__, `inline code`, an escaped \\*star\\*,\n")
+                        .append("an autolink <http://example.com/").append(n)
+                        .append(">, an e-mail <someone@example.com>, and")
+                        .append(" AT&T, 4 < 5 and <span>inline HTML</span>.\n")
+                        .append("It is hard-wrapped, as most Markdown is, over a few lines\n")
+                        .append("of ordinary text.\n\n");
+                    break;
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.markdownj.MarkdownProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to convert generated documents from 10 KB to 10 MB, with each of the
+ * ways the processor can be configured to find blocks and render spans.  If
+ * the time per document grows faster than its size, something has gone
+ * superlinear.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+// Java's regular expressions recurse once for each line some of the patterns
+// match, and by default those patterns run over the whole document.
+@Fork(value = 1, jvmArgsAppend = {"-Xss64m", "-Xmx2g"})
+public class LargeDocumentBenchmark {
+
+    @Param({"10240", "102400", "1048576", "10485760"})
+    public int size;
+
+    @Param({"default", "lineParser", "inlineLexer", "lineParser,inlineLexer"})
+    public String engine;
+
+    private String text;
+    private MarkdownProcessor processor;
+
+    @Setup
+    public void setUp() {
+        text = Documents.generate(size, 42);
+        processor = new MarkdownProcessor();
+        processor.setLineParser(engine.contains("lineParser"));
+        processor.setInlineLexer(engine.contains("inlineLexer"));
+    }
+
+    @Benchmark
+    public String markdown() {
+        return processor.markdown(text);
+    }
+}
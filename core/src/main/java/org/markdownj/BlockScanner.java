@@ -0,0 +1,703 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Line-oriented scanner that splits a document into independent top-level blocks.
+ * <p>
+ * Each line is looked at once and classified (header, horizontal rule, list item,
+ * code, blockquote, HTML, paragraph text or blank).  A block boundary is only
+ * placed at a run of blank lines where none of the block-level rules in
+ * {@link MarkdownProcessor#runBlockGamut(TextEditor)} could match across it, so
+ * rendering the blocks one at a time gives the same HTML as rendering the
+ * whole document in one go.  When in doubt the scanner does not split.
+ * <p>
+ * Usage mirrors {@link java.util.regex.Matcher}:
+ * <pre><code>
+ *     BlockScanner blocks = new BlockScanner(text);
+ *     while (blocks.find()) {
+ *         CharSequence block = text.subSequence(blocks.start(), blocks.end());
+ *     }
+ * </code></pre>
+ * Every block includes the blank lines that follow it, and the blocks together
+ * cover the whole input.
+ * <p>
+ * The text may also be a <code>StringBuilder</code> which is still being filled,
+ * a line at a time: see {@link #find(boolean)} and {@link #discard()}.
+ */
+class BlockScanner {
+    private static final Set<String> BLOCK_TAGS = new HashSet<String>();
+    static {
+        BLOCK_TAGS.addAll(Arrays.asList(MarkdownProcessor.BLOCK_TAGS_A));
+        BLOCK_TAGS.addAll(Arrays.asList(MarkdownProcessor.BLOCK_TAGS_B));
+    }
+    private static final Set<String> NESTED_BLOCK_TAGS =
+            new HashSet<String>(Arrays.asList(MarkdownProcessor.BLOCK_TAGS_A));
+    // Block-level tags which Markdown itself writes at the start of a line.
+    private static final Set<String> GENERATED_TAGS = new HashSet<String>(Arrays.asList(
+            "pre", "blockquote", "ul", "ol", "h1", "h2", "h3", "h4", "h5", "h6"));
+
+    static final int BLANK = 0;
+    static final int TEXT = 1;
+    static final int ATX_HEADER = 2;
+    static final int SETEXT_UNDERLINE = 3;
+    static final int HORIZONTAL_RULE = 4;
+    static final int LIST_ITEM = 5;
+    static final int CODE = 6;
+    static final int BLOCKQUOTE = 7;
+    static final int HTML = 8;
+
+    private final CharSequence text;
+    private int pos;
+    private int start;
+    private int end;
+    private boolean paragraph;
+    private final List<String> openTags = new ArrayList<String>();
+    private final List<String> htmlOpenings = new ArrayList<String>();
+    private final List<String> htmlClosings = new ArrayList<String>();
+    private int joinedUntil = -1;
+    private boolean strayTailJoined;
+    private int maxHtmlBlock = Integer.MAX_VALUE;
+
+    // Where the scan of the current block has got to.
+    private boolean scanning;
+    private int next;
+    private boolean hasContent;
+    private boolean blankSeen;
+    private int blankLines;
+    private boolean emptyFirstItem;
+    private boolean inList;
+    private boolean inQuote;
+    private boolean openAtxHeader;
+    private boolean openComment;
+    private boolean closesComment;
+    private boolean openHr;
+    private int linesSinceDefinition;
+
+    public BlockScanner(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Advance to the next block.
+     * @return <code>false</code> once the input is exhausted.
+     */
+    public boolean find() {
+        return find(false);
+    }
+
+    /**
+     * Advance to the next block of a text which may still be growing.  A line is
+     * only looked at once its newline is in the text, and the last block is only
+     * found once no more text is to come.
+     *
+     * @param more <code>true</code> if more text may yet be appended.
+     * @return <code>false</code> if there is no further block, or none yet.
+     */
+    boolean find(boolean more) {
+        int length = text.length();
+        if (!more && joinedUntil < 0) {
+            joinedUntil = strayClosingTagsEnd();
+        }
+        if (!scanning) {
+            if (pos >= length) {
+                return false;
+            }
+            paragraph = true;
+            hasContent = false;
+            blankSeen = false;
+            blankLines = 0;
+            emptyFirstItem = false;
+            inList = false;
+            inQuote = false;
+            openAtxHeader = false;
+            openComment = false;
+            closesComment = false;
+            openHr = false;
+            linesSinceDefinition = 3;
+            openTags.clear();
+            htmlOpenings.clear();
+            htmlClosings.clear();
+            next = pos;
+            scanning = true;
+        }
+
+        while (next < length) {
+            int lineStart = next;
+            int lineEnd = lineEnd(lineStart);
+            if (more && lineEnd == length) {
+                return false;
+            }
+            int kind = classify(lineStart, lineEnd);
+            if (kind == CODE && hasContent && !blankSeen) {
+                // A code block only starts after a blank line; an indented line
+                // straight after another one carries on whatever that was.
+                kind = continuation(lineStart, lineEnd);
+            }
+
+            if (kind == BLANK) {
+                blankSeen = true;
+                blankLines++;
+            } else {
+                if (hasContent && blankSeen && closesComment) {
+                    openComment = false;
+                }
+                boolean openHtml = openComment || openHr || !openTags.isEmpty();
+                if (hasContent && blankSeen && (!openHtml || lineStart - pos > maxHtmlBlock) && linesSinceDefinition > 2
+                        && lineStart >= joinedUntil && (!emptyFirstItem || blankLines > 1)
+                        && canSplitBefore(kind, lineStart, inList, inQuote, openAtxHeader)
+                        && !joinStrayTail()) {
+                    start = pos;
+                    end = lineStart;
+                    pos = lineStart;
+                    scanning = false;
+                    return true;
+                }
+                if (hasContent && blankSeen) {
+                    paragraph = false;
+                }
+                if (kind != TEXT) {
+                    paragraph = false;
+                }
+                // The first item of a list matches lazily from just after its
+                // marker, so if nothing follows the marker, the item's newline is
+                // taken as its text, and one blank line isn't enough to end it.
+                emptyFirstItem = kind == LIST_ITEM && !inList && isEmptyListItem(lineStart, lineEnd);
+                if (kind == LIST_ITEM) {
+                    inList = true;
+                } else if (kind == BLOCKQUOTE) {
+                    inQuote = true;
+                }
+                if (kind == HTML) {
+                    if (isCommentStart(lineStart, lineEnd)) {
+                        // HTML comments are matched lazily up to the first "-->"
+                        // followed by a blank line, which may be some way off.
+                        openComment = true;
+                    }
+                    String tag = blockTagName(lineStart, lineEnd);
+                    if (tag != null) {
+                        openTags.add(tag);
+                        if (NESTED_BLOCK_TAGS.contains(tag)) {
+                            htmlOpenings.add(tag);
+                        }
+                    }
+                }
+                closeTag(lineStart, lineEnd);
+                closesComment = isCommentEnd(lineStart, lineEnd);
+                // The pattern for <hr> runs on over blank lines to the end of the tag.
+                if (openHr) {
+                    openHr = indexOfAngleBracket(lineStart, lineEnd) < 0;
+                } else {
+                    openHr = isOpenHr(lineStart, lineEnd);
+                }
+                // A link definition, which may take up to three lines, swallows
+                // the blank lines after it when it is stripped out, joining what
+                // comes before it to what comes after.
+                if (isDefinitionStart(lineStart, lineEnd)) {
+                    linesSinceDefinition = 0;
+                } else if (linesSinceDefinition <= 2) {
+                    linesSinceDefinition++;
+                }
+                openAtxHeader = kind == ATX_HEADER && isEmptyAtxHeader(lineStart, lineEnd);
+                hasContent = true;
+                blankSeen = false;
+                blankLines = 0;
+            }
+            next = lineEnd < length ? lineEnd + 1 : length;
+        }
+        if (more) {
+            return false;
+        }
+        start = pos;
+        end = length;
+        pos = length;
+        scanning = false;
+        paragraph = paragraph && hasContent;
+        return true;
+    }
+
+    /**
+     * Stop keeping the lines after an HTML tag or comment together once they come
+     * to more than <code>length</code> characters, and split them where they could
+     * otherwise be split.  HTML which is never closed would otherwise keep the rest
+     * of a stream in one block.
+     */
+    void setMaxHtmlBlock(int length) {
+        this.maxHtmlBlock = length;
+    }
+
+    /**
+     * Delete the text that has already been returned in blocks, so that scanning a
+     * long stream only ever keeps about one block in memory.  The text must be a
+     * <code>StringBuilder</code>, and offsets move back by the amount deleted.
+     */
+    void discard() {
+        ((StringBuilder) text).delete(0, pos);
+        next -= pos;
+        start -= pos;
+        end -= pos;
+        pos = 0;
+    }
+
+    /**
+     * @return offset of the first character of the current block.
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return offset just past the last character (including trailing blank lines) of the current block.
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * @return the names of block-level tags opened at the start of a line in the current
+     * block, and not followed by a line of nothing but the matching closing tag.  In
+     * text whose HTML blocks have not been set aside yet, the HTML block starting at
+     * such a tag may run on to a line like that in a later block.
+     */
+    public List<String> htmlOpenings() {
+        return htmlOpenings;
+    }
+
+    /**
+     * @return the names of block-level tags closed by a line of their own in the current
+     * block.
+     */
+    public List<String> htmlClosings() {
+        return htmlClosings;
+    }
+
+    /**
+     * @return <code>true</code> if the current block is a single run of plain text lines,
+     * which can only ever render as one paragraph.
+     */
+    public boolean isParagraph() {
+        return paragraph;
+    }
+
+    private int lineEnd(int lineStart) {
+        int length = text.length();
+        int i = lineStart;
+        while (i < length && text.charAt(i) != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Work out what sort of line this is, looking only at the line itself.  The
+     * classification is deliberately coarse: it only has to be good enough to decide
+     * where blocks may be split, and whether a block is plain paragraph text.
+     */
+    int classify(int lineStart, int lineEnd) {
+        if (lineStart == lineEnd) {
+            return BLANK;
+        }
+        char first = text.charAt(lineStart);
+        switch (first) {
+            case ' ':
+                int indent = lineStart;
+                while (indent < lineEnd && text.charAt(indent) == ' ') {
+                    indent++;
+                }
+                if (indent == lineEnd) {
+                    return BLANK;
+                }
+                if (indent - lineStart >= 4) {
+                    return CODE;
+                }
+                char c = text.charAt(indent);
+                if (c == '>') {
+                    return BLOCKQUOTE;
+                }
+                if (c == '*' || c == '-' || c == '_') {
+                    // Rules may be indented by up to three spaces.
+                    return ruleOrListItem(indent, lineEnd, c);
+                }
+                if (isListMarker(indent, lineEnd)) {
+                    return LIST_ITEM;
+                }
+                return c == '<' ? HTML : TEXT;
+            case '#':
+                return ATX_HEADER;
+            case '=':
+                return isRun(lineStart, lineEnd, '=') ? SETEXT_UNDERLINE : TEXT;
+            case '-':
+                if (isRun(lineStart, lineEnd, '-')) {
+                    return SETEXT_UNDERLINE;
+                }
+                return ruleOrListItem(lineStart, lineEnd, first);
+            case '*':
+            case '_':
+                return ruleOrListItem(lineStart, lineEnd, first);
+            case '+':
+                return isListMarker(lineStart, lineEnd) ? LIST_ITEM : TEXT;
+            case '>':
+                return BLOCKQUOTE;
+            case '<':
+                return HTML;
+            default:
+                if (first >= '0' && first <= '9') {
+                    return isListMarker(lineStart, lineEnd) ? LIST_ITEM : TEXT;
+                }
+                if (first == '\t') {
+                    return CODE;
+                }
+                return TEXT;
+        }
+    }
+
+    /**
+     * Work out what sort of line an indented line is when it follows another
+     * non-blank line.  It can't start a code block, but the blockquote pattern
+     * takes any amount of whitespace before the "&gt;".
+     */
+    private int continuation(int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+            i++;
+        }
+        return i < lineEnd && text.charAt(i) == '>' ? BLOCKQUOTE : TEXT;
+    }
+
+    /**
+     * The generated tags closing the list or blockquote cut short by a stray
+     * closing tag are left stuck to the start of the next block, so the block
+     * holding the last stray closing tag is kept together with the one after it.
+     */
+    private boolean joinStrayTail() {
+        if (pos < joinedUntil && !strayTailJoined) {
+            strayTailJoined = true;
+            return true;
+        }
+        return false;
+    }
+
+    private int ruleOrListItem(int lineStart, int lineEnd, char first) {
+        if (isHorizontalRule(lineStart, lineEnd, first)) {
+            return HORIZONTAL_RULE;
+        }
+        return isListMarker(lineStart, lineEnd) ? LIST_ITEM : TEXT;
+    }
+
+    private boolean canSplitBefore(int kind, int lineStart, boolean inList, boolean inQuote, boolean openAtxHeader) {
+        if (text.charAt(lineStart) == ' ') {
+            // Indented lines continue lists, code blocks and blockquotes.
+            return false;
+        }
+        if (kind == SETEXT_UNDERLINE || openAtxHeader
+                || (kind == ATX_HEADER && isEmptyAtxHeader(lineStart, lineEnd(lineStart)))) {
+            // An empty line can be a setext header, and the trailing "\s*#*" of
+            // an atx header can reach across blank lines in either direction.
+            return false;
+        }
+        if (isDefinitionStart(lineStart, lineEnd(lineStart))) {
+            return false;
+        }
+        if (inList && (inQuote || kind == LIST_ITEM || kind == HORIZONTAL_RULE)) {
+            // A list swallows the blank lines after it, so a blockquote line left
+            // unprocessed inside a list item would carry on into the next block.
+            return false;
+        }
+        return !(inQuote && kind == BLOCKQUOTE);
+    }
+
+    /**
+     * A line holding nothing but a closing tag such as "&lt;/pre&gt;", with no opening
+     * tag of its own, ends an HTML block which starts at the first such tag written
+     * out for a code block, list, blockquote or header, however far back that was,
+     * and can leave the end of that list or blockquote stuck to whatever follows.
+     * The text is never split before the line after the last of these, nor at the
+     * first place after it where it could otherwise be split.
+     * <p>
+     * A closing tag has an opening tag of its own if the stricter of the HTML block
+     * patterns would match from one to the other before Markdown is rendered: that
+     * is, from a line starting with a block-level tag to the first line holding
+     * nothing but its closing tag.
+     */
+    private int strayClosingTagsEnd() {
+        int length = text.length();
+        Map<String, Integer> lastClosing = new HashMap<String, Integer>();
+        for (int lineStart = 0; lineStart < length; ) {
+            int lineEnd = lineEnd(lineStart);
+            if (text.charAt(lineStart) == '<') {
+                String closing = closingTagName(lineStart, lineEnd);
+                if (closing != null) {
+                    lastClosing.put(closing, lineStart);
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (lastClosing.isEmpty()) {
+            return 0;
+        }
+
+        int end = 0;
+        String open = null;
+        for (int lineStart = 0; lineStart < length; ) {
+            int lineEnd = lineEnd(lineStart);
+            if (text.charAt(lineStart) == '<') {
+                String closing = closingTagName(lineStart, lineEnd);
+                if (open != null) {
+                    if (open.equals(closing)) {
+                        open = null;
+                    }
+                } else if (GENERATED_TAGS.contains(closing)) {
+                    end = lineEnd + 1;
+                } else {
+                    String tag = blockTagName(lineStart, lineEnd);
+                    Integer last = lastClosing.get(tag);
+                    if (NESTED_BLOCK_TAGS.contains(tag) && last != null && last > lineStart) {
+                        open = tag;
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return end;
+    }
+
+    /**
+     * @return the lower-case name of the tag if the line holds nothing but a closing
+     * tag, otherwise <code>null</code>.
+     */
+    private String closingTagName(int lineStart, int lineEnd) {
+        int end = lineEnd;
+        while (end > lineStart && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end - lineStart < 4 || text.charAt(lineStart + 1) != '/' || text.charAt(end - 1) != '>') {
+            return null;
+        }
+        for (int i = lineStart + 2; i < end - 1; i++) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                return null;
+            }
+        }
+        return text.subSequence(lineStart + 2, end - 1).toString().toLowerCase();
+    }
+
+    private boolean isDefinitionStart(int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd && i - lineStart < 3 && text.charAt(i) == ' ') {
+            i++;
+        }
+        if (i == lineEnd || text.charAt(i) != '[') {
+            return false;
+        }
+        for (i++; i + 1 < lineEnd; i++) {
+            if (text.charAt(i) == ']' && text.charAt(i + 1) == ':') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCommentStart(int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd && text.charAt(i) == ' ') {
+            i++;
+        }
+        return i + 1 < lineEnd && text.charAt(i) == '<' && text.charAt(i + 1) == '!';
+    }
+
+    private boolean isCommentEnd(int lineStart, int lineEnd) {
+        int i = lineEnd - 1;
+        while (i >= lineStart && text.charAt(i) == ' ') {
+            i--;
+        }
+        if (i < lineStart || text.charAt(i) != '>') {
+            return false;
+        }
+        i--;
+        while (i >= lineStart && Character.isWhitespace(text.charAt(i))) {
+            i--;
+        }
+        return i - 1 >= lineStart && text.charAt(i) == '-' && text.charAt(i - 1) == '-';
+    }
+
+    /**
+     * @return the lower-case name of the block-level tag opened at the very start of
+     * the line, or <code>null</code> if there isn't one.
+     */
+    private String blockTagName(int lineStart, int lineEnd) {
+        if (text.charAt(lineStart) != '<') {
+            return null;
+        }
+        int i = lineStart + 1;
+        while (i < lineEnd && Character.isLetterOrDigit(text.charAt(i))) {
+            i++;
+        }
+        String name = text.subSequence(lineStart + 1, i).toString().toLowerCase();
+        return BLOCK_TAGS.contains(name) ? name : null;
+    }
+
+    /**
+     * Deal with a closing tag at the end of the line.  It closes an open block-level
+     * tag of that name, as the looser of the HTML block patterns in
+     * {@link MarkdownProcessor} would.  If the line holds nothing but the closing tag,
+     * the stricter pattern may instead have run on to it from an earlier tag.
+     */
+    private void closeTag(int lineStart, int lineEnd) {
+        int end = lineEnd;
+        while (end > lineStart && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end == lineStart || text.charAt(end - 1) != '>') {
+            return;
+        }
+        int nameStart = end - 1;
+        while (nameStart > lineStart && Character.isLetterOrDigit(text.charAt(nameStart - 1))) {
+            nameStart--;
+        }
+        if (nameStart - 2 < lineStart || text.charAt(nameStart - 1) != '/' || text.charAt(nameStart - 2) != '<') {
+            return;
+        }
+        String name = text.subSequence(nameStart, end - 1).toString().toLowerCase();
+        openTags.remove(name);
+        if (nameStart - 2 == lineStart && NESTED_BLOCK_TAGS.contains(name)) {
+            htmlClosings.add(name);
+            while (htmlOpenings.remove(name)) {
+                // every earlier opening of the tag is inside the block it closes
+            }
+        }
+    }
+
+    private boolean isListMarker(int i, int lineEnd) {
+        char c = text.charAt(i);
+        if (c == '-' || c == '*' || c == '+') {
+            i++;
+        } else {
+            int digits = i;
+            while (i < lineEnd && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == digits || i == lineEnd || text.charAt(i) != '.') {
+                return false;
+            }
+            i++;
+        }
+        return i == lineEnd || text.charAt(i) == ' ';
+    }
+
+    /**
+     * @return <code>true</code> if the line starts an &lt;hr&gt; tag which it doesn't finish.
+     */
+    private boolean isOpenHr(int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd && i - lineStart < 3 && text.charAt(i) == ' ') {
+            i++;
+        }
+        if (i + 3 > lineEnd || text.charAt(i) != '<' || Character.toLowerCase(text.charAt(i + 1)) != 'h'
+                || Character.toLowerCase(text.charAt(i + 2)) != 'r') {
+            return false;
+        }
+        i += 3;
+        if (i < lineEnd && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+            return false;
+        }
+        return indexOfAngleBracket(i, lineEnd) < 0;
+    }
+
+    private int indexOfAngleBracket(int from, int lineEnd) {
+        for (int i = from; i < lineEnd; i++) {
+            if (text.charAt(i) == '<' || text.charAt(i) == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isEmptyListItem(int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd && text.charAt(i) == ' ') {
+            i++;
+        }
+        while (i < lineEnd && "-*+.0123456789".indexOf(text.charAt(i)) >= 0) {
+            i++;
+        }
+        while (i < lineEnd && text.charAt(i) == ' ') {
+            i++;
+        }
+        return i == lineEnd;
+    }
+
+    private boolean isEmptyAtxHeader(int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd && text.charAt(i) == '#') {
+            i++;
+        }
+        while (i < lineEnd && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i == lineEnd;
+    }
+
+    private boolean isHorizontalRule(int lineStart, int lineEnd, char c) {
+        int count = 0;
+        for (int i = lineStart; i < lineEnd; i++) {
+            char ch = text.charAt(i);
+            if (ch == c) {
+                count++;
+            } else if (ch != ' ') {
+                return false;
+            }
+        }
+        return count >= 3;
+    }
+
+    private boolean isRun(int lineStart, int lineEnd, char c) {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (text.charAt(i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
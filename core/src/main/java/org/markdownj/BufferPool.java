@@ -0,0 +1,110 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Spare StringBuilders for {@link TextEditor}, kept for each thread while it
+ * renders a document.
+ * <p>
+ * An editor writes the result of each replacement into a spare buffer, then takes
+ * that buffer as its text and gives its old text back as the next spare, so a
+ * pass over the text copies it once and allocates nothing once the buffers are
+ * big enough.  A replacement can run others - rendering a list item runs the
+ * whole block gamut over it - so spares are lent out as a stack.  Only a few
+ * buffers, and none too large, are kept, and they are all let go when the
+ * outermost render on the thread finishes, so an idle thread holds on to none.
+ * Outside a render, buffers are simply allocated.
+ */
+final class BufferPool {
+    private static final int MAX_BUFFERS = 4;
+    private static final int MAX_CAPACITY = 1 << 16;
+
+    private static final ThreadLocal<BufferPool> CURRENT = new ThreadLocal<BufferPool>();
+
+    private final StringBuilder[] buffers = new StringBuilder[MAX_BUFFERS];
+    private int size;
+
+    private BufferPool() {
+    }
+
+    /**
+     * Give this thread a pool, unless a render it is already running has one.
+     *
+     * @return the pool it already had, to be given to {@link #exit(BufferPool)}.
+     */
+    static BufferPool enter() {
+        BufferPool previous = CURRENT.get();
+        if (previous == null) {
+            CURRENT.set(new BufferPool());
+        }
+        return previous;
+    }
+
+    /**
+     * Let go of the pool, and its buffers, if the render which made it is the one finishing.
+     */
+    static void exit(BufferPool previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * @return an empty buffer with room for at least <code>capacity</code> characters.
+     */
+    static StringBuilder borrow(int capacity) {
+        BufferPool pool = CURRENT.get();
+        if (pool == null || pool.size == 0) {
+            return new StringBuilder(capacity);
+        }
+        StringBuilder buffer = pool.buffers[--pool.size];
+        pool.buffers[pool.size] = null;
+        buffer.ensureCapacity(capacity);
+        return buffer;
+    }
+
+    /**
+     * Keep <code>buffer</code> for another borrower.  Nothing else may use it afterwards.
+     */
+    static void giveBack(StringBuilder buffer) {
+        BufferPool pool = CURRENT.get();
+        if (pool != null && pool.size < MAX_BUFFERS && buffer.capacity() <= MAX_CAPACITY) {
+            buffer.setLength(0);
+            pool.buffers[pool.size++] = buffer;
+        }
+    }
+}
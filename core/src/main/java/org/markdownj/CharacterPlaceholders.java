@@ -0,0 +1,136 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Single-character placeholders for the characters Markdown must leave alone
+ * once they have been escaped or found inside code and tags.
+ * <p>
+ * Each protected character is stood in for by one of the Unicode noncharacters
+ * U+FDD0 to U+FDEF, which are set aside for exactly this kind of internal use.
+ * The table is fixed, so encoding is an array lookup and decoding is a single
+ * pass over the text, whatever has been rendered before.  Noncharacters found in
+ * the input are replaced with U+FFFD by {@link #sanitize(String)} so they can't be
+ * mistaken for placeholders.
+ * <p>
+ * A placeholder is never a letter, where the random strings used before usually
+ * started with one.  So a '&lt;' followed by an escaped character, as in
+ * <code>&lt;\*</code> or <code>&lt;\_</code>, is always encoded as
+ * <code>&amp;lt;</code> and never starts a tag, and the characters after it are
+ * not protected as if they were inside one.  Before, whether it did depended on
+ * the random string.
+ */
+final class CharacterPlaceholders {
+    static final char FIRST = '\uFDD0';
+    static final char LAST = '\uFDEF';
+
+    /**
+     * Matches any placeholder, for use inside a regular expression character class.
+     */
+    static final String CHARACTER_CLASS = "\\uFDD0-\\uFDEF";
+
+    private static final String PROTECTED = "\\`*_{}[]()#+-.>!";
+    private static final String[] PLACEHOLDERS = new String[PROTECTED.length()];
+    static {
+        for (int i = 0; i < PROTECTED.length(); i++) {
+            PLACEHOLDERS[i] = String.valueOf((char) (FIRST + i));
+        }
+    }
+
+    private CharacterPlaceholders() {
+    }
+
+    /**
+     * @return the placeholder for a character which can be protected.
+     * @throws IllegalArgumentException if the character has no placeholder.
+     */
+    public static String encode(char c) {
+        int index = PROTECTED.indexOf(c);
+        if (index < 0) {
+            throw new IllegalArgumentException("No placeholder for '" + c + "'");
+        }
+        return PLACEHOLDERS[index];
+    }
+
+    /**
+     * Replace every placeholder with the character it stands for.
+     */
+    public static String decode(String text) {
+        int i = firstPlaceholder(text);
+        if (i < 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        sb.append(text, 0, i);
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= FIRST && c < FIRST + PROTECTED.length()) {
+                sb.append(PROTECTED.charAt(c - FIRST));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace any characters in the placeholder range with U+FFFD REPLACEMENT CHARACTER.
+     */
+    public static String sanitize(String text) {
+        int i = firstPlaceholder(text);
+        if (i < 0) {
+            return text;
+        }
+        char[] chars = text.toCharArray();
+        for (; i < chars.length; i++) {
+            if (chars[i] >= FIRST && chars[i] <= LAST) {
+                chars[i] = '\uFFFD';
+            }
+        }
+        return new String(chars);
+    }
+
+    private static int firstPlaceholder(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= FIRST && c <= LAST) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
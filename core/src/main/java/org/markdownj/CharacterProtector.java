@@ -69,6 +69,13 @@ public class CharacterProtector {
         return Collections.unmodifiableSet(unprotectMap.keySet());
     }
 
+    /**
+     * @return the number of literals which have been encoded.
+     */
+    public int size() {
+        return unprotectMap.size();
+    }
+
     private String addToken(String literal) {
         String encoded = longRandomString();
 
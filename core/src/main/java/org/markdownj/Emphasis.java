@@ -0,0 +1,207 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Marks up bold and italic text, as the regular expressions
+ * <code>(\*\*|__)(?=\S)(.+?[*_]*)(?&lt;=\S)\1</code> and then
+ * <code>(\*|_)(?=\S)(.+?)(?&lt;=\S)\1</code> would, but in linear time.
+ * <p>
+ * Each opening <code>*</code> or <code>_</code> pairs with the first closing one
+ * after it on the same line, and what's between them isn't looked at again, so
+ * emphasis never nests.  The expressions found that closing delimiter by reading
+ * on to the end of the line from every opening one, which makes a line full of
+ * unmatched delimiters, such as snake_case names, quadratic.  Here the scan for
+ * the next closing delimiter of each kind carries on from where the last one
+ * stopped, so each line is read a few times at most.  The text is still read
+ * through {@link RenderBudget#guard(CharSequence)}, as it was by the expressions.
+ */
+final class Emphasis {
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final CharSequence text;
+    private final int length;
+
+    // The next closing "*" (or "**") and "_" (or "__") found, and the end of the
+    // line the scan has got to.
+    private final int[] closers = {-1, -1};
+    private int lineEnd = -1;
+
+    private Emphasis(CharSequence text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    /**
+     * @return <code>true</code> if there are any asterisks or underscores to look at.
+     */
+    static boolean hasDelimiters(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isDelimiter(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Append <code>text</code> to <code>out</code>, with <code>**bold**</code> and
+     * <code>__bold__</code> text marked up.
+     */
+    static void strong(CharSequence text, StringBuilder out) {
+        new Emphasis(RenderBudget.guard(text)).strong(out);
+    }
+
+    /**
+     * Append <code>text</code> to <code>out</code>, with <code>*italic*</code> and
+     * <code>_italic_</code> text marked up.
+     */
+    static void em(CharSequence text, StringBuilder out) {
+        new Emphasis(RenderBudget.guard(text)).em(out);
+    }
+
+    private void strong(StringBuilder out) {
+        int last = 0;
+        int i = 0;
+        while (i + 2 < length) {
+            char c = text.charAt(i);
+            if (isDelimiter(c) && text.charAt(i + 1) == c && !isSpace(text.charAt(i + 2))) {
+                int close = closeStrong(i, c);
+                if (close >= 0) {
+                    out.append(text, last, i).append("<strong>").append(text, i + 2, close).append("</strong>");
+                    i = close + 2;
+                    last = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        out.append(text, last, length);
+    }
+
+    /**
+     * The bold text may end with a run of asterisks and underscores, such as
+     * <code>**bold *and* italic***</code>.  The closing pair is the last in the
+     * first run which holds one.
+     *
+     * @return the start of the pair which closes the bold text opened at
+     * <code>i</code>, or -1.
+     */
+    private int closeStrong(int i, char c) {
+        int first = nextCloser(c, true, i + 3);
+        if (first >= lineEnd(i)) {
+            return -1;
+        }
+        int runStart = first;
+        while (runStart > i + 3 && isDelimiter(text.charAt(runStart - 1))) {
+            runStart--;
+        }
+        int runEnd = first + 2;
+        while (runEnd < length && isDelimiter(text.charAt(runEnd))) {
+            runEnd++;
+        }
+        int close = runEnd - 2;
+        while (text.charAt(close) != c || text.charAt(close + 1) != c) {
+            close--;
+        }
+        return close;
+    }
+
+    private void em(StringBuilder out) {
+        int last = 0;
+        int i = 0;
+        while (i + 1 < length) {
+            char c = text.charAt(i);
+            if (isDelimiter(c) && !isSpace(text.charAt(i + 1))) {
+                int close = nextCloser(c, false, i + 2);
+                if (close < lineEnd(i)) {
+                    out.append(text, last, i).append("<em>").append(text, i + 1, close).append("</em>");
+                    i = close + 1;
+                    last = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        out.append(text, last, length);
+    }
+
+    /**
+     * @return the first <code>c</code>, or pair of them, at or after
+     * <code>from</code> which follows something other than whitespace, or NONE.
+     */
+    private int nextCloser(char c, boolean pair, int from) {
+        int k = c == '*' ? 0 : 1;
+        if (closers[k] < from) {
+            int p = from;
+            int last = pair ? length - 1 : length;
+            while (p < last && !(text.charAt(p) == c && (!pair || text.charAt(p + 1) == c)
+                    && !isSpace(text.charAt(p - 1)))) {
+                p++;
+            }
+            closers[k] = p < last ? p : NONE;
+        }
+        return closers[k];
+    }
+
+    /**
+     * @return the end of the line <code>i</code> is on, as far as the regular
+     * expressions' <code>.</code> is concerned.
+     */
+    private int lineEnd(int i) {
+        if (lineEnd < i) {
+            lineEnd = i;
+            while (lineEnd < length && !isLineTerminator(text.charAt(lineEnd))) {
+                lineEnd++;
+            }
+        }
+        return lineEnd;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == '*' || c == '_';
+    }
+
+    // What \s matches.
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Escapes the characters which mean something in one context, such as code or
+ * the text of a paragraph, in a single scan.  A table says which characters might
+ * need escaping; every other character is copied a run at a time, and nothing is
+ * written at all if there's nothing to escape.
+ */
+abstract class Escaper {
+    /**
+     * Code spans and blocks: ampersands and angle brackets become entities, and
+     * the characters Markdown would otherwise act on become placeholders.
+     */
+    static final Escaper CODE = new TableEscaper("&<>*_{}[]\\") {
+        @Override
+        String replacement(char c) {
+            switch (c) {
+            case '&':
+                return "&amp;";
+            case '<':
+                return "&lt;";
+            case '>':
+                return "&gt;";
+            default:
+                return CharacterPlaceholders.encode(c);
+            }
+        }
+    };
+
+    /**
+     * Tags inside a paragraph, whose attributes mustn't be taken for emphasis or
+     * escapes.
+     */
+    static final Escaper TAG = new TableEscaper("\\`*_") {
+        @Override
+        String replacement(char c) {
+            return CharacterPlaceholders.encode(c);
+        }
+    };
+
+    /**
+     * Link URLs and titles, whose asterisks and underscores mustn't be taken for
+     * emphasis.
+     */
+    static final Escaper EMPHASIS = new TableEscaper("*_") {
+        @Override
+        String replacement(char c) {
+            return CharacterPlaceholders.encode(c);
+        }
+    };
+
+    /**
+     * Backslash escapes: a backslash followed by one of the characters Markdown
+     * acts on, including another backslash, becomes that character's placeholder.
+     */
+    static final Escaper BACKSLASH_ESCAPES = new Escaper("\\") {
+        private static final String ESCAPABLE = "\\`_>!*{}[]()#+-.";
+
+        @Override
+        int escapeAt(CharSequence text, int i, int to, StringBuilder out) {
+            if (i + 1 < to && ESCAPABLE.indexOf(text.charAt(i + 1)) >= 0) {
+                out.append(CharacterPlaceholders.encode(text.charAt(i + 1)));
+                return i + 2;
+            }
+            out.append('\\');
+            return i + 1;
+        }
+    };
+
+    /**
+     * Ampersands which don't start an entity such as "&amp;amp;" or "&amp;#169;",
+     * and left angle brackets which can't start a tag.
+     */
+    static final Escaper AMPS_AND_ANGLES = new Escaper("&<") {
+        @Override
+        int escapeAt(CharSequence text, int i, int to, StringBuilder out) {
+            if (text.charAt(i) == '&') {
+                out.append(isEntity(text, i + 1, to) ? "&" : "&amp;");
+            } else {
+                out.append(i + 1 < to && startsTag(text.charAt(i + 1)) ? "<" : "&lt;");
+            }
+            return i + 1;
+        }
+
+        private boolean isEntity(CharSequence text, int j, int to) {
+            if (j < to && text.charAt(j) == '#') {
+                j++;
+            }
+            int start = j;
+            while (j < to && isWordChar(text.charAt(j))) {
+                j++;
+            }
+            return j > start && j < to && text.charAt(j) == ';';
+        }
+
+        private boolean startsTag(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '/' || c == '?' || c == '$' || c == '!';
+        }
+
+        private boolean isWordChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+    };
+
+    private final boolean[] special = new boolean[128];
+
+    Escaper(String specials) {
+        for (int i = 0; i < specials.length(); i++) {
+            special[specials.charAt(i)] = true;
+        }
+    }
+
+    /**
+     * Write the escaped form of the special character at <code>i</code>.
+     *
+     * @return the index of the first character after those escaped.
+     */
+    abstract int escapeAt(CharSequence text, int i, int to, StringBuilder out);
+
+    /**
+     * @return the index of the first character from <code>from</code> which might
+     * need escaping, or <code>to</code> if there are none.
+     */
+    final int indexOfSpecial(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 128 && special[c]) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Append the characters from <code>from</code> to <code>to</code>, escaped.
+     */
+    final void escape(CharSequence text, int from, int to, StringBuilder out) {
+        int i = indexOfSpecial(text, from, to);
+        while (i < to) {
+            out.append(text, from, i);
+            from = escapeAt(text, i, to, out);
+            i = indexOfSpecial(text, from, to);
+        }
+        out.append(text, from, to);
+    }
+
+    /**
+     * @return <code>text</code> escaped, or <code>text</code> itself if nothing in
+     * it needs escaping.
+     */
+    final String escape(String text) {
+        int to = text.length();
+        if (indexOfSpecial(text, 0, to) == to) {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(to + 16);
+        escape(text, 0, to, out);
+        return out.toString();
+    }
+
+    /**
+     * An escaper which replaces each special character on its own, from a table
+     * built up front.
+     */
+    private abstract static class TableEscaper extends Escaper {
+        private final String[] replacements = new String[128];
+
+        TableEscaper(String specials) {
+            super(specials);
+            for (int i = 0; i < specials.length(); i++) {
+                char c = specials.charAt(i);
+                replacements[c] = replacement(c);
+            }
+        }
+
+        /**
+         * @return the replacement for a special character, while the table is built.
+         */
+        abstract String replacement(char c);
+
+        @Override
+        final int escapeAt(CharSequence text, int i, int to, StringBuilder out) {
+            out.append(replacements[text.charAt(i)]);
+            return i + 1;
+        }
+    }
+}
@@ -39,10 +39,12 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class HTMLDecoder {
+    private static final Pattern DECIMAL = Pattern.compile("&#(\\d+);");
+    private static final Pattern HEX = Pattern.compile("&#x([0-9a-fA-F]+);");
+
     public static String decode(String html) {
         TextEditor ed = new TextEditor(html);
-        Pattern p1 = Pattern.compile("&#(\\d+);");
-        ed.replaceAll(p1, new Replacement() {
+        ed.replaceAll(DECIMAL, new Replacement() {
             public String replacement(Matcher m) {
                 String charDecimal = m.group(1);
                 char ch = (char) Integer.parseInt(charDecimal);
@@ -50,8 +52,7 @@ public class HTMLDecoder {
             }
         });
 
-        Pattern p2 = Pattern.compile("&#x([0-9a-fA-F]+);");
-        ed.replaceAll(p2, new Replacement() {
+        ed.replaceAll(HEX, new Replacement() {
             public String replacement(Matcher m) {
                 String charHex = m.group(1);
                 char ch = (char) Integer.parseInt(charHex, 16);
@@ -0,0 +1,434 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the blocks of HTML which {@link MarkdownProcessor} sets aside before it
+ * converts the Markdown around them, one after another, like a
+ * {@link java.util.regex.Matcher} for the regular expression which used to find
+ * each {@link Kind} of block.
+ * <p>
+ * Those expressions looked for the end of a block with <code>(.*\n)*?</code>,
+ * which reads on to the end of the text for every tag that is never closed.  Here
+ * tag names are looked up in a set, and for each tag, the finder remembers the
+ * next line which closes it, so no part of the text is read more than once for
+ * each tag however far away a block's closing tag is.
+ */
+final class HtmlBlockFinder {
+    enum Kind {
+        /**
+         * <code>^&lt;(tag)\b(.*\n)*?&lt;/\2&gt;[ ]*(?=\n+|\Z)</code>, for the tags
+         * which may be nested, such as <code>div</code>: the block runs on to the
+         * first line which starts with its closing tag.
+         */
+        NESTED,
+        /**
+         * <code>^&lt;(tag)\b(.*\n)*?.*&lt;/\2&gt;[ ]*(?=\n+|\Z)</code>, for every
+         * block-level tag: the block runs on to the first line which ends with its
+         * closing tag.
+         */
+        BLOCK,
+        /**
+         * <code>(?:(?&lt;=\n\n)|\A\n?)[ ]{0,3}&lt;(hr)\b([^&lt;&gt;])*?/?&gt;[ ]*(?=\n{2,}|\Z)</code>,
+         * a horizontal rule on its own.
+         */
+        RULE,
+        /**
+         * <code>(?:(?&lt;=\n\n)|\A\n?)[ ]{0,3}(?s:&lt;!(--.*?--\s*)+&gt;)[ ]*(?=\n{2,}|\Z)</code>,
+         * an HTML comment on its own.
+         */
+        COMMENT
+    }
+
+    private static final Set<String> NESTED_TAGS = new HashSet<String>(Arrays.asList(MarkdownProcessor.BLOCK_TAGS_A));
+    private static final Set<String> BLOCK_TAGS = new HashSet<String>(NESTED_TAGS);
+    static {
+        BLOCK_TAGS.addAll(Arrays.asList(MarkdownProcessor.BLOCK_TAGS_B));
+    }
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final CharSequence text;
+    private final int length;
+    private final Kind kind;
+    private final int lessThanTab;
+
+    // For each tag, the start of the next line found to close it, or NONE.
+    private final Map<String, Integer> closers = new HashMap<String, Integer>();
+    // The next '\r', '\u0085', '\u2028' or '\u2029' found, which ".*\n" can't get past.
+    private int nextBreak = -1;
+    // Where a comment ends if one of its parts ends at each "--", as the regular
+    // expression would find it.
+    private int[] commentEnds;
+
+    private int from;
+    private int start = -1;
+    private int end = -1;
+
+    /**
+     * @param lessThanTab  How far a horizontal rule or comment may be indented.
+     */
+    HtmlBlockFinder(CharSequence text, Kind kind, int lessThanTab) {
+        this.text = text;
+        this.length = text.length();
+        this.kind = kind;
+        this.lessThanTab = lessThanTab;
+    }
+
+    /**
+     * Find the next block.
+     *
+     * @return <code>true</code> if there is one.
+     */
+    boolean find() {
+        if (kind == Kind.NESTED || kind == Kind.BLOCK) {
+            for (int i = from; i < length; i++) {
+                if (text.charAt(i) == '<' && isLineStart(i)) {
+                    int e = tagBlock(i);
+                    if (e >= 0) {
+                        return found(i, e);
+                    }
+                }
+            }
+        } else {
+            if (from == 0) {
+                int e = standalone(length > 0 && text.charAt(0) == '\n' ? 1 : 0);
+                if (e >= 0) {
+                    return found(0, e);
+                }
+            }
+            for (int i = Math.max(from, 2); i < length; i++) {
+                if (text.charAt(i - 1) == '\n' && text.charAt(i - 2) == '\n') {
+                    int e = standalone(i);
+                    if (e >= 0) {
+                        return found(i, e);
+                    }
+                }
+            }
+        }
+        from = length;
+        return false;
+    }
+
+    private boolean found(int start, int end) {
+        this.start = start;
+        this.end = end;
+        from = end;
+        return true;
+    }
+
+    /**
+     * @return the index of the first character of the block found.
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return the index after the last character of the block found.
+     */
+    int end() {
+        return end;
+    }
+
+    // ------------------------------------------------------------------
+    // Blocks of a block-level tag
+
+    /**
+     * @return the end of the block opened by the tag at <code>i</code>, or -1.
+     */
+    private int tagBlock(int i) {
+        int nameEnd = i + 1;
+        while (nameEnd < length && isAsciiLetterOrDigit(text.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == i + 1 || (nameEnd < length && isWordChar(Character.codePointAt(text, nameEnd)))) {
+            return -1;
+        }
+        String name = lowerCase(i + 1, nameEnd);
+        if (!(kind == Kind.NESTED ? NESTED_TAGS : BLOCK_TAGS).contains(name)) {
+            return -1;
+        }
+        // The rest of the line after the tag's name may close it, and then any
+        // line up to the first which ".*\n" can't get past.
+        int e = closes(nameEnd, name);
+        if (e >= 0) {
+            return e;
+        }
+        int line = nextCloser(name, nameEnd + 1);
+        return line != NONE && line <= nextBreak(nameEnd) ? closes(line, name) : -1;
+    }
+
+    /**
+     * @return the start of the first line at or after <code>from</code> which
+     * closes the tag, or NONE.
+     */
+    private int nextCloser(String name, int from) {
+        Integer known = closers.get(name);
+        if (known != null && known >= from) {
+            return known;
+        }
+        int line = NONE;
+        for (int k = indexOf('\n', from - 1); k >= 0; k = indexOf('\n', k + 1)) {
+            if (closes(k + 1, name) >= 0) {
+                line = k + 1;
+                break;
+            }
+        }
+        closers.put(name, line);
+        return line;
+    }
+
+    /**
+     * A block of the NESTED kind may end with its closing tag at <code>i</code>;
+     * one of the BLOCK kind may end with it at the end of the line from
+     * <code>i</code>.
+     *
+     * @return the end of the block if it can end there, or -1.
+     */
+    private int closes(int i, String name) {
+        int closer;
+        int e;
+        if (kind == Kind.NESTED) {
+            closer = i;
+            e = i + name.length() + 3;
+            if (!isCloser(closer, name)) {
+                return -1;
+            }
+            while (e < length && text.charAt(e) == ' ') {
+                e++;
+            }
+        } else {
+            e = i;
+            while (e < length && !isLineTerminator(text.charAt(e))) {
+                e++;
+            }
+            closer = e;
+            while (closer > i && text.charAt(closer - 1) == ' ') {
+                closer--;
+            }
+            closer -= name.length() + 3;
+            if (closer < i || !isCloser(closer, name)) {
+                return -1;
+            }
+        }
+        return (e < length && text.charAt(e) == '\n') || isEnd(e) ? e : -1;
+    }
+
+    private boolean isCloser(int i, String name) {
+        if (i + name.length() + 3 > length || text.charAt(i) != '<' || text.charAt(i + 1) != '/'
+                || text.charAt(i + name.length() + 2) != '>') {
+            return false;
+        }
+        for (int k = 0; k < name.length(); k++) {
+            if (toLowerCase(text.charAt(i + 2 + k)) != name.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int nextBreak(int from) {
+        if (nextBreak < from) {
+            nextBreak = from;
+            while (nextBreak < length) {
+                char c = text.charAt(nextBreak);
+                if (c != '\n' && isLineTerminator(c)) {
+                    break;
+                }
+                nextBreak++;
+            }
+        }
+        return nextBreak;
+    }
+
+    // ------------------------------------------------------------------
+    // Horizontal rules and comments on their own
+
+    /**
+     * @return the end of the rule or comment starting at <code>i</code>, or -1.
+     */
+    private int standalone(int i) {
+        int t = i;
+        while (t < length && text.charAt(t) == ' ') {
+            t++;
+        }
+        if (t - i > lessThanTab || t >= length || text.charAt(t) != '<') {
+            return -1;
+        }
+        int e;
+        if (kind == Kind.RULE) {
+            if (t + 3 > length || toLowerCase(text.charAt(t + 1)) != 'h' || toLowerCase(text.charAt(t + 2)) != 'r'
+                    || (t + 3 < length && isWordChar(Character.codePointAt(text, t + 3)))) {
+                return -1;
+            }
+            e = t + 3;
+            while (e < length && text.charAt(e) != '<' && text.charAt(e) != '>') {
+                e++;
+            }
+            if (e == length || text.charAt(e) != '>') {
+                return -1;
+            }
+            e++;
+            return followedByBlankLine(e) ? skipSpaces(e) : -1;
+        }
+        if (!startsWith("<!--", t)) {
+            return -1;
+        }
+        if (commentEnds == null) {
+            findCommentEnds();
+        }
+        e = commentEnds[t + 4];
+        return e >= 0 ? skipSpaces(e) : -1;
+    }
+
+    /**
+     * Work out, from the end of the text back, where a comment ends if one of its
+     * parts ends at each "--".  Each part ends at the first "--" after which the
+     * comment can go on, either with another part or with its end, in the order
+     * the regular expression tries them; the comment must be followed by a blank
+     * line.
+     */
+    private void findCommentEnds() {
+        commentEnds = new int[length + 1];
+        commentEnds[length] = -1;
+        for (int x = length - 1; x >= 0; x--) {
+            int e = -1;
+            if (startsWith("--", x)) {
+                int w = x + 2;
+                while (w < length && isWhitespace(text.charAt(w))) {
+                    w++;
+                }
+                if (startsWith("--", w)) {
+                    e = commentEnds[w + 2];
+                } else if (w < length && text.charAt(w) == '>' && followedByBlankLine(w + 1)) {
+                    e = w + 1;
+                }
+            }
+            commentEnds[x] = e >= 0 ? e : commentEnds[x + 1];
+        }
+    }
+
+    private boolean followedByBlankLine(int i) {
+        i = skipSpaces(i);
+        return startsWith("\n\n", i) || isEnd(i);
+    }
+
+    private int skipSpaces(int i) {
+        while (i < length && text.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    // ------------------------------------------------------------------
+    // What the regular expressions' ^, \Z, \b and \s match.
+
+    private boolean isLineStart(int i) {
+        if (i == 0) {
+            return true;
+        }
+        char c = text.charAt(i - 1);
+        return isLineTerminator(c) && !(c == '\r' && text.charAt(i) == '\n');
+    }
+
+    private boolean isEnd(int i) {
+        if (i == length) {
+            return true;
+        }
+        if (i == length - 1) {
+            char c = text.charAt(i);
+            return isLineTerminator(c) && !(c == '\n' && i > 0 && text.charAt(i - 1) == '\r');
+        }
+        return i == length - 2 && text.charAt(i) == '\r' && text.charAt(i + 1) == '\n';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isWordChar(int c) {
+        return c == '_' || Character.isLetterOrDigit(c) || Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private String lowerCase(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int k = 0; k < chars.length; k++) {
+            chars[k] = toLowerCase(text.charAt(from + k));
+        }
+        return new String(chars);
+    }
+
+    private boolean startsWith(String s, int i) {
+        if (i + s.length() > length) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (text.charAt(i + k) != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from) {
+        for (int k = Math.max(from, 0); k < length; k++) {
+            if (text.charAt(k) == c) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts back together the blocks found by a {@link BlockScanner} which belong to
+ * one HTML block.  An HTML block whose tag opens a line may run on to a later line
+ * holding nothing but its closing tag, so the blocks from such a tag onwards are
+ * kept as they are until a line like that joins them together, or there are no
+ * more blocks.
+ */
+final class HtmlBlockJoiner {
+    // Blocks which an HTML block may yet join together, and for each tag which might
+    // do so, the first of those blocks in which it opens.
+    private final List<String> unjoined = new ArrayList<String>();
+    private final Map<String, Integer> openHtml = new HashMap<String, Integer>();
+    private int length;
+
+    /**
+     * Add the next block, with the HTML tags it opens and closes.
+     *
+     * @return <code>true</code> if the blocks so far can't be joined to any later
+     * block, and are ready to be taken.
+     */
+    boolean add(String block, List<String> openings, List<String> closings) {
+        int join = unjoined.size();
+        for (String tag : closings) {
+            Integer from = openHtml.get(tag);
+            if (from != null && from < join) {
+                join = from;
+            }
+        }
+        if (join < unjoined.size()) {
+            List<String> joined = unjoined.subList(join, unjoined.size());
+            StringBuilder sb = new StringBuilder();
+            for (String earlier : joined) {
+                sb.append(earlier);
+            }
+            block = sb.append(block).toString();
+            joined.clear();
+            for (Iterator<Map.Entry<String, Integer>> i = openHtml.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<String, Integer> open = i.next();
+                if (closings.contains(open.getKey())) {
+                    i.remove();
+                } else if (open.getValue() > join) {
+                    open.setValue(join);
+                }
+            }
+        }
+        unjoined.add(block);
+        length += block.length();
+        for (String tag : openings) {
+            if (!openHtml.containsKey(tag)) {
+                openHtml.put(tag, unjoined.size() - 1);
+            }
+        }
+        return openHtml.isEmpty();
+    }
+
+    /**
+     * @return the length of the blocks added since the last call to {@link #take()}.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Take the blocks added since the last call, whether or not they could still
+     * be joined.
+     */
+    List<String> take() {
+        List<String> blocks = new ArrayList<String>(unjoined);
+        unjoined.clear();
+        openHtml.clear();
+        length = 0;
+        return blocks;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Finds the HTML tags, comments and processing instructions in some text, one
+ * after another, like a {@link java.util.regex.Matcher} for the regular
+ * expression which used to do it:
+ * <pre>
+ * (?s:&lt;!(--.*?--\s*)+&gt;)|(?s:&lt;\?.*?\?&gt;)|(?:&lt;[a-z/!$](?:[^&lt;&gt;]|(?:&lt;[a-z/!$](?:[^&lt;&gt;]|...)*&gt;))*&gt;)
+ * </pre>
+ * Tags may contain other tags, such as <code>&lt;a href="&lt;MTFoo&gt;"&gt;</code>,
+ * six deep at most.  That expression backtracks over the rest of the text for
+ * every tag which isn't closed; this finds where every tag ends in a single pass
+ * with a stack, and remembers how far it has looked for the end of comments and
+ * processing instructions, so that the whole text is only read a few times.
+ */
+final class HtmlTokenizer {
+    private static final int MAX_DEPTH = 6;
+
+    private final CharSequence text;
+    private final int length;
+
+    // Each '<' which may start a tag, with the end of that tag, or -1 if it has none.
+    private int[] tagStarts;
+    private int[] tagEnds;
+    private int tagCount;
+    private int nextTag;
+
+    // Where the "--" of the last "--\s*>" in the text is, once we know.
+    private int lastCommentEnd = -2;
+    // The earliest "?>" found so far, or Integer.MAX_VALUE if there are no more.
+    private int processingEnd = -1;
+
+    private int from;
+    private int start = -1;
+    private int end = -1;
+
+    HtmlTokenizer(CharSequence text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    /**
+     * Find the next tag, comment or processing instruction.
+     *
+     * @return <code>true</code> if there is one.
+     */
+    boolean find() {
+        for (int i = from; i < length; i++) {
+            if (text.charAt(i) != '<') {
+                continue;
+            }
+            int e = comment(i);
+            if (e < 0) {
+                e = processingInstruction(i);
+            }
+            if (e < 0) {
+                e = tag(i);
+            }
+            if (e >= 0) {
+                start = i;
+                end = e;
+                from = e;
+                return true;
+            }
+        }
+        from = length;
+        return false;
+    }
+
+    /**
+     * @return the index of the first character of what was found.
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return the index after the last character of what was found.
+     */
+    int end() {
+        return end;
+    }
+
+    /**
+     * A comment is made up of one or more parts like <code>--...--</code>, each of
+     * which may be followed by whitespace, and then a <code>&gt;</code>.  Each part
+     * ends at the first <code>--</code> after which the comment can go on, with
+     * another part or with its end, in the order the regular expression tries
+     * them.
+     *
+     * @return the end of the comment at <code>i</code>, or -1.
+     */
+    private int comment(int i) {
+        if (!startsWith("<!--", i) || lastCommentEnd() < i + 4) {
+            return -1;
+        }
+        // There's always a "--\s*>" for this part to end with.
+        int part = i + 2;
+        int dashes = part + 2;
+        while (true) {
+            dashes = indexOf('-', '-', dashes);
+            int next = dashes + 2;
+            while (next < length && isWhitespace(text.charAt(next))) {
+                next++;
+            }
+            if (startsWith("--", next) && lastCommentEnd() >= next + 2) {
+                part = next;
+                dashes = part + 2;
+            } else if (next < length && text.charAt(next) == '>') {
+                return next + 1;
+            } else {
+                dashes++;
+            }
+        }
+    }
+
+    private int lastCommentEnd() {
+        if (lastCommentEnd == -2) {
+            lastCommentEnd = -1;
+            for (int k = length - 1; k >= 2; k--) {
+                if (text.charAt(k) == '>') {
+                    int j = k - 1;
+                    while (j >= 0 && isWhitespace(text.charAt(j))) {
+                        j--;
+                    }
+                    if (j >= 1 && text.charAt(j) == '-' && text.charAt(j - 1) == '-') {
+                        lastCommentEnd = j - 1;
+                        break;
+                    }
+                    k = j + 1;
+                }
+            }
+        }
+        return lastCommentEnd;
+    }
+
+    /**
+     * @return the end of the processing instruction at <code>i</code>, or -1.
+     */
+    private int processingInstruction(int i) {
+        if (i + 1 >= length || text.charAt(i + 1) != '?') {
+            return -1;
+        }
+        if (processingEnd < i + 2) {
+            processingEnd = indexOf('?', '>', i + 2);
+            if (processingEnd < 0) {
+                processingEnd = Integer.MAX_VALUE;
+            }
+        }
+        return processingEnd == Integer.MAX_VALUE ? -1 : processingEnd + 2;
+    }
+
+    /**
+     * @return the end of the tag at <code>i</code>, or -1.
+     */
+    private int tag(int i) {
+        if (tagStarts == null) {
+            findTags();
+        }
+        while (nextTag < tagCount && tagStarts[nextTag] < i) {
+            nextTag++;
+        }
+        return nextTag < tagCount && tagStarts[nextTag] == i ? tagEnds[nextTag] : -1;
+    }
+
+    /**
+     * Find where each tag ends.  A '<' which can't start a tag can't be inside
+     * one either, so it leaves every open tag unclosed, and so does opening a
+     * tag more than six deep inside another.
+     */
+    private void findTags() {
+        tagStarts = new int[16];
+        tagEnds = new int[16];
+        int[] open = new int[MAX_DEPTH];
+        int depth = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                if (i + 1 >= length || !isTagStart(text.charAt(i + 1))) {
+                    depth = 0;
+                    continue;
+                }
+                if (tagCount == tagStarts.length) {
+                    tagStarts = grow(tagStarts);
+                    tagEnds = grow(tagEnds);
+                }
+                tagStarts[tagCount] = i;
+                tagEnds[tagCount] = -1;
+                if (depth == MAX_DEPTH) {
+                    System.arraycopy(open, 1, open, 0, MAX_DEPTH - 1);
+                    depth--;
+                }
+                open[depth++] = tagCount++;
+            } else if (c == '>' && depth > 0) {
+                tagEnds[open[--depth]] = i + 1;
+            }
+        }
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static boolean isTagStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '/' || c == '!' || c == '$';
+    }
+
+    // What \s matches.
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private boolean startsWith(String s, int i) {
+        if (i + s.length() > length) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (text.charAt(i + k) != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(char first, char second, int from) {
+        for (int k = from; k + 1 < length; k++) {
+            if (text.charAt(k) == first && text.charAt(k + 1) == second) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
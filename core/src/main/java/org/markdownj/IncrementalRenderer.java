@@ -0,0 +1,313 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the HTML for a document which is being edited, and brings it up to date
+ * after each edit by rendering again only the blocks which the edit has changed.
+ * Usage:
+ * <pre><code>
+ *     IncrementalRenderer editor = new IncrementalRenderer(new MarkdownProcessor());
+ *     editor.edit(0, 0, "Some *text*\n\nMore text\n");
+ *     List&lt;IncrementalRenderer.Change&gt; changes = editor.edit(5, 0, "new ");
+ * </code></pre>
+ * The document is split into top-level blocks as it is for
+ * {@link MarkdownProcessor#markdown(java.io.Reader, Appendable)}, which takes one pass over
+ * its lines.  A block whose text is the same as before keeps its HTML, unless a
+ * link it uses has been defined differently; only the rest are rendered again.
+ * Each edit returns the blocks of HTML which have changed, so that a preview can
+ * be updated in place, and {@link #getHtml()} gives the whole document.
+ * <p>
+ * The processor's settings can be changed between edits, at the cost of rendering
+ * the whole document again.  An IncrementalRenderer is not safe for use by more
+ * than one thread at a time.
+ */
+public final class IncrementalRenderer {
+    private final MarkdownProcessor processor;
+    private final StringBuilder text = new StringBuilder();
+    private List<Block> blocks = new ArrayList<Block>();
+    private String settings;
+
+    public IncrementalRenderer(MarkdownProcessor processor) {
+        this.processor = processor;
+        update();
+    }
+
+    /**
+     * Replace <code>deleted</code> characters of the document, starting at
+     * <code>offset</code>, with <code>inserted</code>.
+     *
+     * @return the changes to the blocks of HTML, in order.  Applying each one in
+     * turn to the list of blocks from before the edit gives the list after it.
+     * @throws RenderLimitException if rendering the edit goes over the processor's
+     * limits.  The edit is still made, but there is no HTML until the next edit
+     * succeeds, which renders the whole document again.
+     */
+    public List<Change> edit(int offset, int deleted, String inserted) {
+        if (offset < 0 || deleted < 0 || offset + deleted > text.length()) {
+            throw new IndexOutOfBoundsException("edit of " + deleted + " at " + offset
+                    + " in a document of length " + text.length());
+        }
+        text.replace(offset, offset + deleted, inserted == null ? "" : inserted);
+        return update();
+    }
+
+    /**
+     * Replace the whole document.
+     *
+     * @see #edit(int, int, String)
+     */
+    public List<Change> setText(String newText) {
+        return edit(0, text.length(), newText);
+    }
+
+    /**
+     * @return the Markdown text of the document.
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * @return the number of blocks of HTML; a block may be empty, if it held only
+     * link definitions.
+     */
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    public String getBlockHtml(int index) {
+        return blocks.get(index).html;
+    }
+
+    /**
+     * @return the HTML for the whole document, as
+     * {@link MarkdownProcessor#markdown(java.io.Reader, Appendable)} would write it.
+     */
+    public String getHtml() {
+        StringBuilder html = new StringBuilder();
+        for (Block block : blocks) {
+            if (block.html.length() > 0) {
+                if (html.length() > 0) {
+                    html.append("\n\n");
+                }
+                html.append(block.html);
+            }
+        }
+        return html.append("\n").toString();
+    }
+
+    private List<Change> update() {
+        RenderBudget previous = RenderBudget.enter(processor.startBudget());
+        BufferPool pool = BufferPool.enter();
+        try {
+            return updateBlocks();
+        } catch (RenderLimitException e) {
+            // Blocks may have been rendered against the new text; start afresh next time.
+            blocks = new ArrayList<Block>();
+            settings = null;
+            throw e;
+        } finally {
+            BufferPool.exit(pool);
+            RenderBudget.exit(previous);
+        }
+    }
+
+    private List<Change> updateBlocks() {
+        List<String> sources = split();
+        List<Block> old = processor.settings().equals(settings) ? blocks : Collections.<Block>emptyList();
+        settings = processor.settings();
+
+        // The blocks at either end whose text hasn't changed.
+        int same = Math.min(old.size(), sources.size());
+        int prefix = 0;
+        while (prefix < same && old.get(prefix).source.equals(sources.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < same - prefix
+                && old.get(old.size() - 1 - suffix).source.equals(sources.get(sources.size() - 1 - suffix))) {
+            suffix++;
+        }
+        int removed = old.size() - suffix - prefix;
+        int end = sources.size() - suffix;
+
+        List<Block> updated = new ArrayList<Block>(sources.size());
+        updated.addAll(old.subList(0, prefix));
+        for (int i = prefix; i < end; i++) {
+            updated.add(new Block(sources.get(i)));
+        }
+        updated.addAll(old.subList(old.size() - suffix, old.size()));
+
+        // As in markdown(String), a link defined twice takes its last definition.
+        Map<String, LinkDefinition> definitions = new TreeMap<String, LinkDefinition>();
+        for (Block block : updated) {
+            definitions.putAll(block.context.linkDefinitions);
+        }
+
+        List<String> html = new ArrayList<String>();
+        for (Block block : updated.subList(prefix, end)) {
+            block.render(definitions);
+            html.add(block.html);
+        }
+        List<Change> changes = new ArrayList<Change>();
+        for (int i = 0; i < prefix; i++) {
+            rerender(updated.get(i), i, definitions, changes);
+        }
+        if (removed > 0 || !html.isEmpty()) {
+            changes.add(new Change(prefix, removed, html));
+        }
+        for (int i = end; i < updated.size(); i++) {
+            rerender(updated.get(i), i, definitions, changes);
+        }
+        blocks = updated;
+        return changes;
+    }
+
+    /**
+     * Render a block again if a link it uses has been defined differently.
+     */
+    private void rerender(Block block, int index, Map<String, LinkDefinition> definitions, List<Change> changes) {
+        if (!block.isCurrent(definitions)) {
+            String before = block.html;
+            block.render(definitions);
+            if (!before.equals(block.html)) {
+                changes.add(new Change(index, 1, Collections.singletonList(block.html)));
+            }
+        }
+    }
+
+    /**
+     * @return the text of each top-level block in the document.
+     */
+    private List<String> split() {
+        StringBuilder lines = LineReader.normalize(text.toString(), processor.getTabWidth());
+
+        List<String> sources = new ArrayList<String>();
+        HtmlBlockJoiner joiner = new HtmlBlockJoiner();
+        BlockScanner scanner = new BlockScanner(lines);
+        while (scanner.find()) {
+            if (joiner.add(lines.substring(scanner.start(), scanner.end()), scanner.htmlOpenings(), scanner.htmlClosings())) {
+                sources.addAll(joiner.take());
+            }
+        }
+        sources.addAll(joiner.take());
+        return sources;
+    }
+
+    /**
+     * One top-level block: its text, the context it was prepared in, which holds
+     * its link definitions and HTML blocks, and its HTML along with the links that
+     * were looked up in rendering it.
+     */
+    private final class Block {
+        final String source;
+        final RenderContext context = new RenderContext();
+        private final String markup;
+        String html;
+        private Map<String, LinkDefinition> lookups;
+
+        Block(String source) {
+            this.source = source;
+            markup = processor.prepareBlock(source, context);
+        }
+
+        void render(Map<String, LinkDefinition> definitions) {
+            RenderContext linked = context.withLinkDefinitions(definitions);
+            linked.lookups = new HashMap<String, LinkDefinition>();
+            html = processor.renderBlock(markup, linked);
+            lookups = linked.lookups;
+        }
+
+        boolean isCurrent(Map<String, LinkDefinition> definitions) {
+            for (Map.Entry<String, LinkDefinition> lookup : lookups.entrySet()) {
+                if (!LinkDefinition.same(definitions.get(lookup.getKey()), lookup.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A run of blocks of HTML which have been replaced by others.
+     */
+    public static final class Change {
+        private final int index;
+        private final int removed;
+        private final List<String> html;
+
+        Change(int index, int removed, List<String> html) {
+            this.index = index;
+            this.removed = removed;
+            this.html = Collections.unmodifiableList(html);
+        }
+
+        /**
+         * @return the index of the first block changed.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return how many blocks, from the index on, are removed.
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the blocks of HTML which take their place.
+         */
+        public List<String> getHtml() {
+            return html;
+        }
+
+        @Override
+        public String toString() {
+            return "Change(" + index + ", -" + removed + ", +" + html.size() + ")";
+        }
+    }
+}
@@ -0,0 +1,790 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Renders span-level Markdown in a single left-to-right scan over a paragraph.
+ * <p>
+ * This does the same job as {@link MarkdownProcessor#runSpanGamut(TextEditor)}:
+ * code spans, backslash escapes, images, links, automatic links, inline HTML,
+ * ampersand and angle bracket encoding, emphasis and manual line breaks.  Rather
+ * than running a regular expression over the whole paragraph for each of those,
+ * the lexer looks at each character once and decides on the spot what it starts.
+ * Emphasis is resolved afterwards, on the output, by {@link Emphasis}.
+ * <p>
+ * Characters that later stages must leave alone are written as their
+ * {@link CharacterPlaceholders}, exactly as the span gamut does.  As there, the
+ * special characters inside HTML tags are protected before anything else, so a
+ * backtick or backslash inside a tag never starts or ends a code span or an
+ * escape, and automatic links are made even inside the attributes of a tag.
+ * <p>
+ * Links and images are found by matching brackets, where the span gamut's patterns
+ * can run from the first bracket of one link to the end of another, and those
+ * inside the attributes of a tag are left alone; see
+ * {@link MarkdownProcessor#setInlineLexer(boolean)}.
+ */
+class InlineLexer {
+    private static final String ESCAPABLE = "\\`_>!*{}[]()#+-.";
+    private static final String TAG_SPECIALS = "\\`*_";
+
+    private final RenderContext context;
+
+    private String text;
+    private StringBuilder out;
+    // Where in the output each '<' that doesn't start a tag has been written.
+    private int[] lessThans = new int[16];
+    private int lessThanCount;
+
+    public InlineLexer(RenderContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Convert one paragraph's worth of span-level Markdown to HTML.
+     */
+    public String render(String paragraph) {
+        text = new TextEditor(paragraph).escapeTags(Escaper.TAG).toString();
+        out = new StringBuilder(text.length() + text.length() / 8 + 16);
+        titleSearchFrom = -1;
+        lessThanCount = 0;
+        span(0, text.length());
+        // The links made may have closed tags left open in the paragraph, so the
+        // characters inside tags are protected again, as the span gamut does, and
+        // only then are angle brackets encoded and line breaks made.
+        String html = new TextEditor(out).escapeTags(Escaper.TAG).toString();
+        html = lineBreaks(doItalicsAndBold(encodeLessThans(html)));
+        text = null;
+        out = null;
+        return html;
+    }
+
+    private void span(int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            int next;
+            switch (c) {
+                case '\\':
+                    next = escape(i, to);
+                    break;
+                case '`':
+                    next = codeSpan(i, to);
+                    break;
+                case '!':
+                    next = image(i, to);
+                    break;
+                case '[':
+                    next = link(i, to);
+                    break;
+                case '<':
+                    next = angle(i, to);
+                    break;
+                case '&':
+                    next = ampersand(i, to);
+                    break;
+                default:
+                    next = -1;
+            }
+            if (next < 0) {
+                out.append(c);
+                i++;
+            } else {
+                i = next;
+            }
+        }
+    }
+
+    private int escape(int i, int to) {
+        if (i + 1 < to && ESCAPABLE.indexOf(text.charAt(i + 1)) >= 0) {
+            out.append(protect(text.charAt(i + 1)));
+            return i + 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Write a '<', remembering where it is to encode it later if it doesn't start a tag.
+     */
+    private void lessThan(int j, int to) {
+        if (!startsTag(j, to)) {
+            if (lessThanCount == lessThans.length) {
+                int[] grown = new int[lessThanCount * 2];
+                System.arraycopy(lessThans, 0, grown, 0, lessThanCount);
+                lessThans = grown;
+            }
+            lessThans[lessThanCount++] = out.length();
+        }
+        out.append('<');
+    }
+
+    private String encodeLessThans(String html) {
+        if (lessThanCount == 0) {
+            return html;
+        }
+        StringBuilder sb = new StringBuilder(html.length() + lessThanCount * 3);
+        int last = 0;
+        for (int n = 0; n < lessThanCount; n++) {
+            sb.append(html, last, lessThans[n]).append("&lt;");
+            last = lessThans[n] + 1;
+        }
+        return sb.append(html, last, html.length()).toString();
+    }
+
+    /**
+     * Apply <code> {2,}\n</code> -&gt; <code> &lt;br /&gt;\n</code>.
+     */
+    private static String lineBreaks(String html) {
+        StringBuilder sb = null;
+        int last = 0;
+        for (int i = html.indexOf("  \n"); i >= 0; i = html.indexOf("  \n", i + 3)) {
+            int start = i;
+            while (start > last && html.charAt(start - 1) == ' ') {
+                start--;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(html.length() + 16);
+            }
+            sb.append(html, last, start).append(" <br />\n");
+            last = i + 3;
+        }
+        return sb == null ? html : sb.append(html, last, html.length()).toString();
+    }
+
+    private int ampersand(int i, int to) {
+        out.append(isEntity(i, to) ? "&" : "&amp;");
+        return i + 1;
+    }
+
+    private boolean isEntity(int i, int to) {
+        int j = i + 1;
+        if (j < to && text.charAt(j) == '#') {
+            j++;
+        }
+        int start = j;
+        while (j < to && isWordChar(text.charAt(j))) {
+            j++;
+        }
+        return j > start && j < to && text.charAt(j) == ';';
+    }
+
+    // ------------------------------------------------------------------
+    // Code spans
+
+    private int codeEnd;
+    private int contentStart;
+    private int contentEnd;
+
+    /**
+     * Find the code span starting at i, setting codeEnd, contentStart and contentEnd.
+     * A span is a run of backticks, at least one character on the same line, and a
+     * run of exactly as many backticks again.
+     */
+    private boolean findCodeSpan(int i, int to) {
+        if (i > 0 && text.charAt(i - 1) == '\\') {
+            return false;
+        }
+        int run = i;
+        while (run < to && text.charAt(run) == '`') {
+            run++;
+        }
+        for (int n = run - i; n > 0; n--) {
+            int start = i + n;
+            for (int q = start + 1; q + n <= to; q++) {
+                char before = text.charAt(q - 1);
+                if (before == '\n') {
+                    break;
+                }
+                if (before != '`' && closesCodeSpan(q, n, to)) {
+                    contentStart = start;
+                    contentEnd = q;
+                    codeEnd = q + n;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean closesCodeSpan(int q, int n, int to) {
+        for (int k = q; k < q + n; k++) {
+            if (text.charAt(k) != '`') {
+                return false;
+            }
+        }
+        return q + n >= to || text.charAt(q + n) != '`';
+    }
+
+    private int codeSpan(int i, int to) {
+        if (!findCodeSpan(i, to)) {
+            return -1;
+        }
+        int start = contentStart;
+        int end = contentEnd;
+        while (start < end && isBlank(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && isBlank(text.charAt(end - 1))) {
+            end--;
+        }
+        out.append("<code>");
+        Escaper.CODE.escape(text, start, end, out);
+        out.append("</code>");
+        return codeEnd;
+    }
+
+    // ------------------------------------------------------------------
+    // Links and images
+
+    private int image(int i, int to) {
+        if (i + 1 >= to || text.charAt(i + 1) != '[') {
+            return -1;
+        }
+        int close = matchBracket(i + 1, to);
+        if (close < 0) {
+            return -1;
+        }
+        if (close + 1 < to && text.charAt(close + 1) == '(' && parseTarget(close + 2, to)) {
+            out.append("<img src=\"");
+            attribute(urlStart, urlEnd, to, true, false);
+            out.append("\" alt=\"");
+            attribute(i + 2, close, to, true, false);
+            if (titleStart >= 0) {
+                out.append("\" title=\"");
+                attribute(titleStart, titleEnd, to, true, false);
+            }
+            out.append("\" />");
+            return targetEnd;
+        }
+        if (!containsNewline(i + 2, close) && parseReference(close + 1, to)) {
+            String id = referenceId(i + 2, close);
+            LinkDefinition defn = context.linkDefinition(id);
+            if (defn != null) {
+                out.append("<img src=\"");
+                attribute(defn.getUrl());
+                out.append("\"");
+                String title = defn.getTitle();
+                if (title != null && !title.equals("")) {
+                    out.append(" alt=\"");
+                    attribute(i + 2, close, to, true, false);
+                    out.append("\" title=\"");
+                    attribute(title);
+                    out.append("\"");
+                }
+                out.append("/>");
+                return referenceEnd;
+            }
+        }
+        return -1;
+    }
+
+    private int link(int i, int to) {
+        int close = matchBracket(i, to);
+        if (close < 0) {
+            return -1;
+        }
+        if (!containsNewline(i + 1, close) && parseReference(close + 1, to)) {
+            LinkDefinition defn = context.linkDefinition(referenceId(i + 1, close));
+            if (defn != null) {
+                anchor(defn, i + 1, close);
+                return referenceEnd;
+            }
+        }
+        if (close + 1 < to && text.charAt(close + 1) == '(' && parseTarget(close + 2, to)) {
+            out.append("<a href=\"");
+            attribute(urlStart, urlEnd, to, true, false);
+            out.append("\"");
+            if (titleStart >= 0) {
+                out.append(" title=\"");
+                attribute(titleStart, titleEnd, to, true, true);
+                out.append("\"");
+            }
+            out.append(">");
+            int end = targetEnd;
+            span(i + 1, close);
+            out.append("</a>");
+            return end;
+        }
+        if (text.substring(i + 1, close).indexOf('[') < 0) {
+            String id = text.substring(i + 1, close).toLowerCase();
+            id = MarkdownProcessor.EMBEDDED_NEWLINE.matcher(id).replaceAll(" ");
+            LinkDefinition defn = context.shortcutDefinition(id);
+            if (defn != null) {
+                anchor(defn, i + 1, close);
+                return close + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void anchor(LinkDefinition defn, int textStart, int textEnd) {
+        out.append("<a href=\"");
+        attribute(defn.getUrl());
+        out.append("\"");
+        String title = defn.getTitle();
+        if (title != null && !title.equals("")) {
+            out.append(" title=\"");
+            attribute(title);
+            out.append("\"");
+        }
+        out.append(">");
+        span(textStart, textEnd);
+        out.append("</a>");
+    }
+
+    /**
+     * @return the position of the ']' matching the '[' at i, skipping over
+     * nested brackets, escaped characters and code spans; or -1.
+     */
+    private int matchBracket(int i, int to) {
+        int depth = 0;
+        int j = i;
+        while (j < to) {
+            char c = text.charAt(j);
+            if (c == '\\' && j + 1 < to && ESCAPABLE.indexOf(text.charAt(j + 1)) >= 0) {
+                j += 2;
+                continue;
+            }
+            if (c == '`' && findCodeSpan(j, to)) {
+                j = codeEnd;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return j;
+                }
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    private int referenceEnd;
+    private int idStart;
+    private int idEnd;
+
+    /**
+     * Match <code>[ ]?(?:\n[ ]*)?\[(.*?)\]</code> at position k.
+     */
+    private boolean parseReference(int k, int to) {
+        if (k < to && text.charAt(k) == ' ') {
+            k++;
+        }
+        if (k < to && text.charAt(k) == '\n') {
+            k++;
+            while (k < to && text.charAt(k) == ' ') {
+                k++;
+            }
+        }
+        if (k >= to || text.charAt(k) != '[') {
+            return false;
+        }
+        for (int j = k + 1; j < to; j++) {
+            char c = text.charAt(j);
+            if (c == '\n') {
+                return false;
+            }
+            if (c == ']') {
+                idStart = k + 1;
+                idEnd = j;
+                referenceEnd = j + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String referenceId(int textStart, int textEnd) {
+        if (idStart == idEnd) { // for shortcut links like [this][]
+            return text.substring(textStart, textEnd).toLowerCase();
+        }
+        return text.substring(idStart, idEnd).toLowerCase();
+    }
+
+    private int urlStart;
+    private int urlEnd;
+    private int titleStart;
+    private int titleEnd;
+    private int targetEnd;
+
+    /**
+     * Match <code>[ \t]*&lt;?(.*?)&gt;?[ \t]*((['"])(.*?)\3)?\)</code> at position k,
+     * just after the opening parenthesis of an inline link.
+     */
+    private boolean parseTarget(int k, int to) {
+        int close = text.indexOf(')', k);
+        if (close < 0 || close >= to) {
+            return false;
+        }
+        while (k < to && isBlank(text.charAt(k))) {
+            k++;
+        }
+        if (k < to && text.charAt(k) == '<') {
+            k++;
+        }
+        // The URL ends no later than the first ')', so this loop is bounded by it.
+        for (int j = k; j <= close; j++) {
+            int m = j;
+            if (m < to && text.charAt(m) == '>') {
+                m++;
+            }
+            while (m < to && isBlank(text.charAt(m))) {
+                m++;
+            }
+            if (m >= to) {
+                return false;
+            }
+            char c = text.charAt(m);
+            if (c == '"' || c == '\'') {
+                int end = titleEnd(c, m + 1, to);
+                if (end >= 0) {
+                    urlStart = k;
+                    urlEnd = j;
+                    titleStart = m + 1;
+                    titleEnd = end;
+                    targetEnd = end + 2;
+                    return true;
+                }
+            }
+            if (c == ')') {
+                urlStart = k;
+                urlEnd = j;
+                titleStart = -1;
+                targetEnd = m + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int titleSearchFrom = -1;
+    private int titleSearchResult;
+    private char titleSearchQuote;
+    private int titleSearchTo;
+
+    /**
+     * @return position of the first quote character followed by ')' at or after from.
+     * The result is remembered, since successive calls only ever move forward.
+     */
+    private int titleEnd(char quote, int from, int to) {
+        if (quote == titleSearchQuote && to == titleSearchTo && titleSearchFrom >= 0 && titleSearchFrom <= from
+                && (titleSearchResult < 0 || titleSearchResult >= from)) {
+            return titleSearchResult;
+        }
+        int result = -1;
+        for (int j = from; j + 1 < to; j++) {
+            if (text.charAt(j) == quote && text.charAt(j + 1) == ')') {
+                result = j;
+                break;
+            }
+        }
+        titleSearchQuote = quote;
+        titleSearchTo = to;
+        titleSearchFrom = from;
+        titleSearchResult = result;
+        return result;
+    }
+
+    // ------------------------------------------------------------------
+    // HTML and automatic links
+
+    private int angle(int i, int to) {
+        int end = autoLink(i, to);
+        if (end >= 0) {
+            return end;
+        }
+        end = emailLink(i, to);
+        if (end >= 0) {
+            return end;
+        }
+        end = tag(i, to);
+        if (end >= 0) {
+            tagWithLinks(i, end, to);
+            return end;
+        }
+        lessThan(i + 1, to);
+        return i + 1;
+    }
+
+    private int autoLink(int i, int to) {
+        int k = i + 1;
+        if (text.startsWith("http:", k)) {
+            k += 5;
+        } else if (text.startsWith("https:", k) || text.startsWith("ftp:", k)) {
+            k += text.charAt(k) == 'h' ? 6 : 4;
+        } else {
+            return -1;
+        }
+        int end = k;
+        while (end < to) {
+            char c = text.charAt(end);
+            if (c == '\'' || c == '"' || c == '>' || Character.isWhitespace(c)) {
+                break;
+            }
+            end++;
+        }
+        if (end == k || end >= to || text.charAt(end) != '>') {
+            return -1;
+        }
+        out.append("<a href=\"");
+        tagText(i + 1, end, to);
+        out.append("\">");
+        tagText(i + 1, end, to);
+        out.append("</a>");
+        return end + 1;
+    }
+
+    private int emailLink(int i, int to) {
+        int k = i + 1;
+        while (k < to && isAddressChar(text.charAt(k))) {
+            k++;
+        }
+        if (k == i + 1 || k >= to || text.charAt(k) != '@') {
+            return -1;
+        }
+        int domainStart = k + 1;
+        int end = domainStart;
+        int parts = 1;
+        int partStart = domainStart;
+        boolean lastPartLetters = true;
+        while (end < to && text.charAt(end) != '>') {
+            char c = text.charAt(end);
+            if (c == '.') {
+                if (end == partStart) {
+                    return -1;
+                }
+                parts++;
+                partStart = end + 1;
+                lastPartLetters = true;
+            } else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-') {
+                if (c < 'a') {
+                    lastPartLetters = false;
+                }
+            } else {
+                return -1;
+            }
+            end++;
+        }
+        if (end >= to || end == partStart || parts < 2 || !lastPartLetters) {
+            return -1;
+        }
+        String address = CharacterPlaceholders.decode(text.substring(i + 1, end));
+        String addr = MarkdownProcessor.encodeEmail(address, context.random());
+        String url = MarkdownProcessor.encodeEmail("mailto:" + address, context.random());
+        out.append("<a href=\"").append(url).append("\">").append(addr).append("</a>");
+        return end + 1;
+    }
+
+    /**
+     * @return the end of the HTML tag, comment or processing instruction at i, or -1.
+     */
+    private int tag(int i, int to) {
+        if (text.startsWith("<!--", i)) {
+            int j = text.indexOf("--", i + 4);
+            while (j >= 0 && j + 2 <= to) {
+                int k = j + 2;
+                while (k < to && Character.isWhitespace(text.charAt(k))) {
+                    k++;
+                }
+                if (k < to && text.charAt(k) == '>') {
+                    return k + 1;
+                }
+                j = text.indexOf("--", j + 1);
+            }
+        }
+        if (text.startsWith("<?", i)) {
+            int j = text.indexOf("?>", i + 2);
+            if (j >= 0 && j + 2 <= to) {
+                return j + 2;
+            }
+        }
+        if (!isTagStart(i + 1, to)) {
+            return -1;
+        }
+        // Tags may contain other tags, such as <a href="<MTFoo>">, six deep at most.
+        int depth = 0;
+        for (int j = i; j < to; j++) {
+            char c = text.charAt(j);
+            if (c == '<') {
+                if (!isTagStart(j + 1, to) || ++depth > 6) {
+                    return -1;
+                }
+            } else if (c == '>') {
+                if (--depth == 0) {
+                    return j + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean isTagStart(int j, int to) {
+        if (j >= to) {
+            return false;
+        }
+        char c = text.charAt(j);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '/' || c == '!' || c == '$';
+    }
+
+    private boolean startsTag(int j, int to) {
+        return isTagStart(j, to) || (j < to && text.charAt(j) == '?');
+    }
+
+    /**
+     * Copy an HTML tag, making links of any automatic links inside it.
+     */
+    private void tagWithLinks(int from, int end, int to) {
+        int copied = from;
+        for (int k = from + 1; k < end; k++) {
+            if (text.charAt(k) != '<') {
+                continue;
+            }
+            int mark = out.length();
+            tagText(copied, k, to);
+            int link = autoLink(k, end);
+            if (link < 0) {
+                link = emailLink(k, end);
+            }
+            if (link < 0) {
+                out.setLength(mark);
+            } else {
+                copied = link;
+                k = link - 1;
+            }
+        }
+        tagText(copied, end, to);
+    }
+
+    /**
+     * Copy the text of a tag, protecting the characters which would otherwise be
+     * taken for Markdown, and encoding ampersands and angle brackets.
+     */
+    private void tagText(int from, int end, int to) {
+        for (int k = from; k < end; k++) {
+            char c = text.charAt(k);
+            if (TAG_SPECIALS.indexOf(c) >= 0) {
+                out.append(protect(c));
+            } else if (c == '&') {
+                ampersand(k, to);
+            } else if (c == '<') {
+                lessThan(k + 1, to);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Write part of the paragraph as an attribute value.  Backslash escapes have
+     * already been applied to attribute values by the time they reach the span
+     * gamut's tag handling, so do that here too.
+     */
+    private void attribute(int from, int end, int to, boolean escapes, boolean quotes) {
+        for (int k = from; k < end; k++) {
+            char c = text.charAt(k);
+            if (escapes && c == '\\' && k + 1 < end && ESCAPABLE.indexOf(text.charAt(k + 1)) >= 0) {
+                out.append(protect(text.charAt(++k)));
+            } else if (quotes && c == '"') {
+                out.append("&quot;");
+            } else if (TAG_SPECIALS.indexOf(c) >= 0) {
+                out.append(protect(c));
+            } else if (c == '&') {
+                ampersand(k, to);
+            } else if (c == '<') {
+                lessThan(k + 1, to);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private void attribute(String value) {
+        String saved = text;
+        text = value;
+        attribute(0, value.length(), value.length(), false, false);
+        text = saved;
+    }
+
+    // ------------------------------------------------------------------
+    // Emphasis
+
+    /**
+     * Apply <code>(\*\*|__)(?=\S)(.+?[*_]*)(?<=\S)\1</code> and then
+     * <code>(\*|_)(?=\S)(.+?)(?<=\S)\1</code>.
+     */
+    private String doItalicsAndBold(CharSequence html) {
+        if (!Emphasis.hasDelimiters(html)) {
+            return html.toString();
+        }
+        StringBuilder strong = new StringBuilder(html.length() + 32);
+        Emphasis.strong(html, strong);
+        StringBuilder result = new StringBuilder(strong.length() + 32);
+        Emphasis.em(strong, result);
+        return result.toString();
+    }
+
+    // ------------------------------------------------------------------
+
+    private String protect(char c) {
+        return CharacterPlaceholders.encode(c);
+    }
+
+    private boolean containsNewline(int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (text.charAt(k) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+
+    private static boolean isAddressChar(char c) {
+        return isWordChar(c) || c == '-' || c == '.'
+                || (c >= CharacterPlaceholders.FIRST && c <= CharacterPlaceholders.LAST);
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
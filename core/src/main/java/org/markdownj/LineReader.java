@@ -0,0 +1,179 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads Markdown a line at a time, tidying up each line the way
+ * {@link MarkdownProcessor#markdown(String)} tidies up a whole document: DOS and
+ * Mac line endings become "\n", tabs are expanded, and lines which hold nothing
+ * but whitespace are emptied.
+ */
+class LineReader {
+    private final Reader in;
+    private final int tabWidth;
+    private final char[] buffer;
+    private int pos;
+    private int limit;
+    private boolean skipLineFeed;
+    private long charactersRead;
+
+    public LineReader(Reader in, int tabWidth) {
+        this.in = in;
+        this.tabWidth = tabWidth;
+        this.buffer = new char[8192];
+    }
+
+    /**
+     * Read the lines of a document which is already in memory, straight out of
+     * <code>text</code>.
+     */
+    LineReader(char[] text, int tabWidth) {
+        this.in = null;
+        this.tabWidth = tabWidth;
+        this.buffer = text;
+        this.limit = text.length;
+    }
+
+    /**
+     * Tidy up a whole document in a single pass.
+     *
+     * @return the lines of <code>text</code>, followed by two newlines, as the
+     * block parsers expect.
+     */
+    static StringBuilder normalize(String text, int tabWidth) {
+        StringBuilder lines = new StringBuilder(text.length() + text.length() / 16 + 2);
+        LineReader reader = new LineReader(text.toCharArray(), tabWidth);
+        try {
+            while (reader.readLine(lines)) {
+                // Keep reading.
+            }
+        } catch (IOException e) {
+            // There's nothing to read from but the array.
+            throw new IllegalStateException(e);
+        }
+        return lines.append("\n\n");
+    }
+
+    /**
+     * Append the next line, followed by "\n" unless it is the unterminated last
+     * line of the input.
+     *
+     * @return <code>false</code> if the input was already exhausted.
+     */
+    public boolean readLine(StringBuilder line) throws IOException {
+        // Where the line started, or the last \u0085, \u2028 or \u2029, which regular
+        // expressions take to end a line too.
+        int lineStart = line.length();
+        int column = 0;
+        boolean blank = true;
+        boolean read = false;
+        while (pos < limit || fill()) {
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer[pos] == '\n') {
+                    pos++;
+                    continue;
+                }
+            }
+            read = true;
+            // Copy a run of ordinary characters in one go.
+            int end = pos;
+            while (end < limit) {
+                char c = buffer[end];
+                if (c < ' ' ? c == '\n' || c == '\r' || c == '\t' : c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    break;
+                }
+                blank = blank && c == ' ';
+                end++;
+            }
+            if (end > pos) {
+                line.append(buffer, pos, end - pos);
+                column += end - pos;
+                pos = end;
+                continue;
+            }
+            char c = buffer[pos++];
+            if (c == '\t') {
+                do {
+                    line.append(' ');
+                    column++;
+                } while (column % tabWidth != 0);
+                continue;
+            }
+            if (blank) {
+                line.setLength(lineStart);
+            }
+            if (c == '\n' || c == '\r') {
+                skipLineFeed = c == '\r';
+                line.append('\n');
+                return true;
+            }
+            line.append(c);
+            lineStart = line.length();
+            column = 0;
+            blank = true;
+        }
+        if (blank) {
+            line.setLength(lineStart);
+        }
+        return read;
+    }
+
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        int n = in.read(buffer);
+        while (n == 0) {
+            n = in.read(buffer);
+        }
+        pos = 0;
+        limit = Math.max(n, 0);
+        charactersRead += limit;
+        return n > 0;
+    }
+
+    /**
+     * @return how many characters have been read from the input so far.
+     */
+    long charactersRead() {
+        return charactersRead;
+    }
+}
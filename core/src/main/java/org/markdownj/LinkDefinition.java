@@ -52,6 +52,21 @@ public class LinkDefinition {
         return title;
     }
 
+    /**
+     * @return <code>true</code> if the two definitions have the same URL and title,
+     * or are both <code>null</code>.
+     */
+    static boolean same(LinkDefinition a, LinkDefinition b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return equal(a.url, b.url) && equal(a.title, b.title);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     @Override
     public String toString() {
         return url + " (" + title + ")";
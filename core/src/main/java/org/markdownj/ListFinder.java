@@ -0,0 +1,464 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the lists in a block of Markdown, and then the items in each list, one
+ * after another like a {@link java.util.regex.Matcher} for the regular
+ * expressions which used to find them:
+ * <pre>
+ *   ([ ]{0,3}([-+*]|\d+[.])[ ]+(?s:.+?)(\z|\n{2,}(?=\S)(?![ ]*([-+*]|\d+[.])[ ]+)))
+ * </pre>
+ * for a whole list, starting at the beginning of a line inside a list item or
+ * after a blank line elsewhere, and
+ * <pre>
+ *   (\n)?^([ \t]*)([-+*]|\d+[.])[ ]+((?s:.+?)(\n{1,2}))(?=\n*(\z|\2([-+*]|\d+[.])[ \t]+))
+ * </pre>
+ * for each item in it.
+ * <p>
+ * Both expressions looked for where a list or item ends by trying a lookahead
+ * at every character after its marker.  Here the lines are read once each, by
+ * their indentation and markers: a list ends at the first blank line followed by
+ * a line which isn't indented and doesn't start with a marker, and an item at
+ * the first line which starts with a marker indented just as far as its own.
+ * The text is read through {@link RenderBudget#guard(CharSequence)}, as it was by
+ * the expressions.
+ */
+final class ListFinder {
+    /**
+     * Makes the HTML for each list found, for
+     * {@link TextEditor#replaceLists(boolean, int, Renderer)}.
+     */
+    interface Renderer {
+        String render(String list, boolean ordered);
+    }
+
+    private final CharSequence text;
+    private final int length;
+    private final boolean nested;
+    private final int lessThanTab;
+
+    private int from;
+    private int start = -1;
+    private int listStart = -1;
+    private int end = -1;
+    private boolean ordered;
+
+    /**
+     * @param nested       <code>true</code> inside a list item, where a list may
+     *                     start on any line, rather than only after a blank line.
+     * @param lessThanTab  How far the first marker of a list may be indented.
+     */
+    ListFinder(CharSequence text, boolean nested, int lessThanTab) {
+        this.text = RenderBudget.guard(text);
+        this.length = text.length();
+        this.nested = nested;
+        this.lessThanTab = lessThanTab;
+    }
+
+    /**
+     * Find the next list.
+     *
+     * @return <code>true</code> if there is one.
+     */
+    boolean find() {
+        if (nested) {
+            for (int i = from; i < length; i++) {
+                if (isLineStart(text, i) && found(i, i)) {
+                    return true;
+                }
+            }
+        } else {
+            // The list may start at the very beginning, after one newline at most.
+            if (from == 0 && ((length > 0 && text.charAt(0) == '\n' && found(0, 1)) || found(0, 0))) {
+                return true;
+            }
+            for (int i = Math.max(from, 2); i < length; i++) {
+                if (text.charAt(i - 1) == '\n' && text.charAt(i - 2) == '\n' && found(i, i)) {
+                    return true;
+                }
+            }
+        }
+        from = length;
+        return false;
+    }
+
+    private boolean found(int start, int listStart) {
+        int e = listEnd(listStart);
+        if (e < 0) {
+            return false;
+        }
+        this.start = start;
+        this.listStart = listStart;
+        this.end = e;
+        from = e;
+        return true;
+    }
+
+    /**
+     * @return the index of the first character of the match, which is the start of
+     * the list, or the newline before it at the very beginning of the text.
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return the index of the first character of the list.
+     */
+    int listStart() {
+        return listStart;
+    }
+
+    /**
+     * @return the index after the last character of the list, including the blank
+     * lines after it.
+     */
+    int end() {
+        return end;
+    }
+
+    /**
+     * @return <code>true</code> if the list's first marker is a number.
+     */
+    boolean ordered() {
+        return ordered;
+    }
+
+    /**
+     * @return the end of the list which starts at <code>i</code>, or -1.
+     */
+    private int listEnd(int i) {
+        int indent = i;
+        while (i < length && i - indent < lessThanTab && text.charAt(i) == ' ') {
+            i++;
+        }
+        int marker = markerEnd(text, i);
+        if (marker < 0) {
+            return -1;
+        }
+        int content = marker;
+        while (content < length && text.charAt(content) == ' ') {
+            content++;
+        }
+        if (content == marker) {
+            return -1;
+        }
+        if (content == length) {
+            // ".+?" may take the last space, if there are two.
+            if (content - marker < 2) {
+                return -1;
+            }
+            ordered = isDigit(text.charAt(i));
+            return length;
+        }
+        ordered = isDigit(text.charAt(i));
+        // The list takes at least one character, then runs on to the end of the
+        // text, or to the first blank lines followed by a line which isn't
+        // indented and doesn't start with a marker.
+        int k = content + 1;
+        while (k < length) {
+            if (text.charAt(k) == '\n' && k + 1 < length && text.charAt(k + 1) == '\n') {
+                int next = k + 2;
+                while (next < length && text.charAt(next) == '\n') {
+                    next++;
+                }
+                if (next < length && !isWhitespace(text.charAt(next)) && !isMarker(text, next, false)) {
+                    return next;
+                }
+                k = next;
+            } else {
+                k++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The items of a list found by {@link ListFinder}, after
+     * {@link #spaceItems(CharSequence)}.  Text which doesn't make an item, which
+     * can only be at the very end of a list which doesn't end with a newline, is
+     * skipped over, as <code>replaceAll()</code> leaves what doesn't match.
+     */
+    static final class Items {
+        private final CharSequence text;
+        private final int length;
+        // Where the newlines at the end of the text begin.
+        private final int trailingNewlines;
+
+        // For each indentation, the start of the next line found to begin an item
+        // indented that far, and where the search for it started.
+        private final Map<String, int[]> nextItems = new HashMap<String, int[]>();
+
+        private int from;
+        private int start = -1;
+        private int contentStart = -1;
+        private int end = -1;
+
+        Items(CharSequence text) {
+            this.text = RenderBudget.guard(text);
+            this.length = text.length();
+            int i = length;
+            while (i > 0 && text.charAt(i - 1) == '\n') {
+                i--;
+            }
+            trailingNewlines = i;
+        }
+
+        /**
+         * Find the next item.
+         *
+         * @return <code>true</code> if there is one.
+         */
+        boolean find() {
+            for (int i = from; i < length; i++) {
+                if (text.charAt(i) == '\n') {
+                    if (i + 1 < length && found(i, i + 1)) {
+                        return true;
+                    }
+                } else if (isLineStart(text, i) && found(i, i)) {
+                    return true;
+                }
+            }
+            from = length;
+            return false;
+        }
+
+        /**
+         * @return the index of the first character of the item, which is the
+         * newline before it if it follows a blank line.
+         */
+        int start() {
+            return start;
+        }
+
+        /**
+         * @return <code>true</code> if the item follows a blank line, so its
+         * text is a paragraph.
+         */
+        boolean followsBlankLine() {
+            return text.charAt(start) == '\n';
+        }
+
+        /**
+         * @return the index of the first character after the item's marker and the
+         * spaces after it.
+         */
+        int contentStart() {
+            return contentStart;
+        }
+
+        /**
+         * @return the index after the newline, or two, which end the item.
+         */
+        int end() {
+            return end;
+        }
+
+        private boolean found(int start, int i) {
+            int lineStart = i;
+            while (i < length && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+                i++;
+            }
+            String indent = text.subSequence(lineStart, i).toString();
+            int marker = markerEnd(text, i);
+            if (marker < 0) {
+                return false;
+            }
+            int content = marker;
+            while (content < length && text.charAt(content) == ' ') {
+                content++;
+            }
+            if (content == marker) {
+                return false;
+            }
+            // The item takes at least one character, and ends with the newlines
+            // before the end of the text or before the next item indented as far.
+            int next = nextItem(indent, content + 2);
+            if (trailingNewlines < length && length >= content + 2) {
+                next = Math.min(next, length);
+            }
+            int e = next;
+            if (next != Integer.MAX_VALUE) {
+                while (e - 1 > content && text.charAt(e - 1) == '\n') {
+                    e--;
+                }
+            } else if (content - marker >= 2 && content < length && text.charAt(content) == '\n'
+                    && endsItem(indent, content)) {
+                // Failing that, "[ ]+" gives up a space to ".+?", and the item is
+                // empty.
+                e = content--;
+            } else {
+                return false;
+            }
+            this.start = start;
+            this.contentStart = content;
+            this.end = e + 1 < length && text.charAt(e + 1) == '\n' ? e + 2 : e + 1;
+            from = end;
+            return true;
+        }
+
+        /**
+         * @return <code>true</code> if the newlines at <code>i</code> are
+         * followed by the end of the text or by an item indented by
+         * <code>indent</code>.
+         */
+        private boolean endsItem(String indent, int i) {
+            while (i < length && text.charAt(i) == '\n') {
+                i++;
+            }
+            return i == length || (startsWith(indent, i) && isMarker(text, i + indent.length(), true));
+        }
+
+        /**
+         * @return the start of the first line at or after <code>from</code> which
+         * follows a newline and starts with a marker indented by
+         * <code>indent</code>, or {@link Integer#MAX_VALUE}.
+         */
+        private int nextItem(String indent, int from) {
+            int[] known = nextItems.get(indent);
+            if (known != null && known[0] <= from && from <= known[1]) {
+                return known[1];
+            }
+            int line = Integer.MAX_VALUE;
+            for (int k = Math.max(from, 1); k < length; k++) {
+                if (text.charAt(k - 1) == '\n' && text.charAt(k) != '\n'
+                        && startsWith(indent, k) && isMarker(text, k + indent.length(), true)) {
+                    line = k;
+                    break;
+                }
+            }
+            nextItems.put(indent, new int[] {from, line});
+            return line;
+        }
+
+        private boolean startsWith(String s, int i) {
+            if (i + s.length() > length) {
+                return false;
+            }
+            for (int k = 0; k < s.length(); k++) {
+                if (text.charAt(i + k) != s.charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Make each blank line in a list a double one, so that the last item can be
+     * made a paragraph if need be, and leave one newline at the end, as the items
+     * are found in it.
+     */
+    static String spaceItems(CharSequence list) {
+        int length = list.length();
+        StringBuilder spaced = new StringBuilder(length + 16);
+        int lastIndex = 0;
+        int i = 0;
+        while (i < length) {
+            if (list.charAt(i) != '\n') {
+                i++;
+                continue;
+            }
+            int run = i;
+            while (i < length && list.charAt(i) == '\n') {
+                i++;
+            }
+            if (i - run > 1) {
+                spaced.append(list, lastIndex, run).append(i == length ? "\n" : "\n\n\n");
+                lastIndex = i;
+            }
+        }
+        return spaced.append(list, lastIndex, length).toString();
+    }
+
+    // ------------------------------------------------------------------
+    // Markers, and what the regular expressions' ^ and \s match.
+
+    /**
+     * @return the index after the marker (<code>-</code>, <code>+</code>,
+     * <code>*</code> or a number and a dot) at <code>i</code>, or -1.
+     */
+    private static int markerEnd(CharSequence text, int i) {
+        int length = text.length();
+        if (i >= length) {
+            return -1;
+        }
+        char c = text.charAt(i);
+        if (c == '-' || c == '+' || c == '*') {
+            return i + 1;
+        }
+        int k = i;
+        while (k < length && isDigit(text.charAt(k))) {
+            k++;
+        }
+        return k > i && k < length && text.charAt(k) == '.' ? k + 1 : -1;
+    }
+
+    /**
+     * @return <code>true</code> if there is a marker at <code>i</code> with a
+     * space after it, or a space or tab if <code>orTab</code>.
+     */
+    private static boolean isMarker(CharSequence text, int i, boolean orTab) {
+        int e = markerEnd(text, i);
+        if (e < 0 || e >= text.length()) {
+            return false;
+        }
+        char c = text.charAt(e);
+        return c == ' ' || (orTab && c == '\t');
+    }
+
+    private static boolean isLineStart(CharSequence text, int i) {
+        if (i == 0) {
+            return true;
+        }
+        char c = text.charAt(i - 1);
+        return (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+                && !(c == '\r' && text.charAt(i) == '\n');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -36,10 +36,21 @@ software, even if advised of the possibility of such damage.
 
 package org.markdownj;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,20 +61,233 @@ import java.util.regex.Pattern;
  *     MarkdownProcessor markdown = new MarkdownProcessor();
  *     String html = markdown.markdown("*italic*   **bold**\n_italic_   __bold__");
  * </code></pre>
+ * Everything that is built up while converting a document is kept apart from
+ * the processor, so once it has been configured, one processor can be shared
+ * by any number of threads.
  */
 public class MarkdownProcessor {
-    private Random rnd = new Random();
-    private Map<String, LinkDefinition> linkDefinitions = new TreeMap<String, LinkDefinition>();
-    private static final CharacterProtector HTML_PROTECTOR = new CharacterProtector();
-    private static final CharacterProtector CHAR_PROTECTOR = new CharacterProtector();
-    private int listLevel;
+    static final String[] BLOCK_TAGS_A = {
+        "p", "div", "h1", "h2", "h3", "h4", "h5", "h6", "blockquote", "pre", "table",
+        "dl", "ol", "ul", "script", "noscript", "form", "fieldset", "iframe", "math"
+    };
+    static final String[] BLOCK_TAGS_B = {"ins", "del"};
+    private static final int PARALLEL_CHUNK_SIZE = 4096;
+
     private int tabWidth = 4;
+    private boolean lineParser;
+    private boolean inlineLexer;
+    private Executor executor;
+    private int parallelThreshold = 16384;
+    private RenderCache cache;
+    private RenderCache fragmentCache;
+    private long timeoutNanos;
+    private long maxInspections;
+    private RenderListener listener;
 
     /**
      * Creates a new Markdown processor.
      */
     public MarkdownProcessor() {
-        listLevel = 0;
+    }
+
+    /**
+     * Choose how block-level structure is found.  By default the whole document goes
+     * through each stage of {@link #runBlockGamut(TextEditor)} in turn.  With the line
+     * parser, the document is first split into independent top-level blocks by a single
+     * scan over its lines, and each block is rendered on its own.  Both produce the
+     * same HTML; the line parser keeps the cost of each stage proportional to the size
+     * of a block rather than the size of the document.
+     *
+     * @param lineParser <code>true</code> to use the line parser.
+     */
+    public void setLineParser(boolean lineParser) {
+        this.lineParser = lineParser;
+    }
+
+    /**
+     * @return <code>true</code> if the line parser is used to find blocks.
+     * @see #setLineParser(boolean)
+     */
+    public boolean isLineParser() {
+        return lineParser;
+    }
+
+    /**
+     * Choose how span-level Markdown is rendered.  By default each paragraph goes
+     * through each stage of {@link #runSpanGamut(TextEditor)} in turn.  With the inline
+     * lexer, a paragraph is rendered in a single left-to-right scan instead.
+     * <p>
+     * Both give the same HTML, except for links and images whose brackets enclose,
+     * or are enclosed by, other brackets on the same line, and links and images
+     * inside the attributes of a tag.  The span gamut's patterns can run from the
+     * first bracket of one link to the end of another; the lexer matches each link's
+     * own brackets, and leaves the attributes of tags alone.
+     *
+     * @param inlineLexer <code>true</code> to use the inline lexer.
+     */
+    public void setInlineLexer(boolean inlineLexer) {
+        this.inlineLexer = inlineLexer;
+    }
+
+    /**
+     * @return <code>true</code> if the inline lexer is used to render spans.
+     * @see #setInlineLexer(boolean)
+     */
+    public boolean isInlineLexer() {
+        return inlineLexer;
+    }
+
+    /**
+     * Render large documents on more than one thread.  Once a document is at least
+     * {@link #getParallelThreshold()} characters long, its paragraphs (or, with the
+     * line parser, its top-level blocks) are split into chunks of a few kilobytes,
+     * each chunk is rendered on the executor, and the results are joined back up in
+     * order.  The HTML is the same as rendering on one thread.
+     * <p>
+     * The calling thread renders any chunk the executor hasn't started yet rather
+     * than waiting for it, so the executor may be busy, bounded, or the one the
+     * caller itself is running on.
+     *
+     * @param executor the executor to render chunks on, or <code>null</code> (the
+     *                 default) to render everything on the calling thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor large documents are rendered on, or <code>null</code>.
+     * @see #setExecutor(Executor)
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param parallelThreshold the length, in characters, from which a document is
+     *                          rendered on the executor.  The default is 16384.
+     * @see #setExecutor(Executor)
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return the length from which a document is rendered on the executor.
+     * @see #setParallelThreshold(int)
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Keep the HTML for documents converted by {@link #markdown(String)}, and give it
+     * back rather than converting the same document with the same settings again.
+     * The cache can be shared with other processors.
+     *
+     * @param cache the cache to use, or <code>null</code> (the default) for none.
+     */
+    public void setCache(RenderCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache of converted documents, or <code>null</code>.
+     * @see #setCache(RenderCache)
+     */
+    public RenderCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Keep the HTML for each paragraph, and reuse it when the same paragraph turns
+     * up again, in this document or a later one, so long as the links it uses are
+     * still defined the same way.  This suits documents which are converted again
+     * after each small edit, where most paragraphs are the same as last time.
+     *
+     * @param fragmentCache the cache to use, or <code>null</code> (the default) for none.
+     */
+    public void setFragmentCache(RenderCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * @return the cache of rendered paragraphs, or <code>null</code>.
+     * @see #setFragmentCache(RenderCache)
+     */
+    public RenderCache getFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * Limit how long converting one document may take.  A document which takes
+     * longer, for instance one whose unclosed tags or runs of "*" keep a regular
+     * expression backtracking, is abandoned with a {@link RenderLimitException}.
+     * The limit applies to each call to {@link #markdown(String)} and
+     * {@link #markdown(Reader, Appendable)}, and to each edit of an
+     * {@link IncrementalRenderer}.
+     *
+     * @param timeout the time allowed, or 0 (the default) for no limit.
+     * @param unit the unit of <code>timeout</code>.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return the time allowed to convert one document, or 0 for no limit.
+     * @see #setTimeout(long, TimeUnit)
+     */
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Limit how much work converting one document may do, counted as the number of
+     * characters looked at by regular expressions.  Unlike a timeout, this doesn't
+     * depend on how busy the machine is, so a document is always either accepted or
+     * rejected.  A document which needs more is abandoned with a
+     * {@link RenderLimitException}.
+     *
+     * @param maxInspections the characters allowed, or 0 (the default) for no limit.
+     * @see #setTimeout(long, TimeUnit)
+     */
+    public void setMaxInspections(long maxInspections) {
+        this.maxInspections = maxInspections;
+    }
+
+    /**
+     * @return the characters allowed to convert one document, or 0 for no limit.
+     * @see #setMaxInspections(long)
+     */
+    public long getMaxInspections() {
+        return maxInspections;
+    }
+
+    /**
+     * Report how long each stage of each conversion takes to <code>listener</code>,
+     * for instance a {@link RenderStatistics}.  Without a listener, which is the
+     * default, stages aren't timed at all.
+     *
+     * @param listener the listener, or <code>null</code> for none.
+     */
+    public void setRenderListener(RenderListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the listener told about each stage, or <code>null</code>.
+     * @see #setRenderListener(RenderListener)
+     */
+    public RenderListener getRenderListener() {
+        return listener;
+    }
+
+    /**
+     * @return a budget for one render, or <code>null</code> if there are no limits.
+     */
+    RenderBudget startBudget() {
+        return RenderBudget.start(timeoutNanos, maxInspections);
     }
 
     /**
@@ -71,64 +295,224 @@ public class MarkdownProcessor {
      *
      * @param txt - input in markdown format
      * @return HTML block corresponding to txt passed in.
+     * @throws RenderLimitException if the conversion goes over the limits set by
+     * {@link #setTimeout(long, TimeUnit)} or {@link #setMaxInspections(long)}.
      */
     public String markdown(String txt) {
         if (txt == null) {
             txt = "";
         }
-        TextEditor text = new TextEditor(txt);
+        RenderCache cache = this.cache;
+        if (cache == null) {
+            return convert(txt);
+        }
+        RenderCache.Key key = RenderCache.key(settings(), txt);
+        String html = cache.get(key);
+        if (html == null) {
+            html = convert(txt);
+            cache.put(key, html);
+        }
+        return html;
+    }
 
-        // Standardize line endings:
-        text.replaceAll("\\r\\n", "\n"); 	// DOS to Unix
-        text.replaceAll("\\r", "\n");    	// Mac to Unix
-        text.replaceAll("^[ \\t]+$", "");
+    private String convert(String txt) {
+        RenderListener listener = this.listener;
+        long start = 0;
+        if (listener != null) {
+            listener.documentStarted(txt.length());
+            start = System.nanoTime();
+        }
+        RenderContext context = new RenderContext();
+        String html;
+        RenderBudget previous = RenderBudget.enter(startBudget());
+        BufferPool pool = BufferPool.enter();
+        try {
+            html = convert(CharacterPlaceholders.sanitize(txt), context);
+        } finally {
+            BufferPool.exit(pool);
+            RenderBudget.exit(previous);
+        }
+        if (listener != null) {
+            listener.documentFinished(txt.length(), html.length(), context.paragraphs,
+                    context.maxListLevel, context.htmlBlockCount(), System.nanoTime() - start);
+        }
+        return html;
+    }
 
-        // Make sure $text ends with a couple of newlines:
-        text.append("\n\n");
+    /**
+     * @return the settings which change the HTML a document is converted into.
+     */
+    String settings() {
+        return "tabWidth=" + tabWidth + ",lineParser=" + lineParser + ",inlineLexer=" + inlineLexer;
+    }
 
-        text.detabify();
-        text.deleteAll("^[ ]+$");
-        hashHTMLBlocks(text);
-        stripLinkDefinitions(text);
-        text = runBlockGamut(text);
-        unEscapeSpecialChars(text);
+    /**
+     * Convert Markdown read from <code>in</code> into HTML written to <code>out</code>.
+     * The HTML is mostly the same as {@link #markdown(String)} gives for the whole
+     * input, but the input is read, and the HTML written, a block at a time, so
+     * neither needs to be held in memory in full.
+     * <p>
+     * Blocks are held back while something further on could still change them: a
+     * block with a reference, <code>[text][id]</code> or <code>[id][]</code>, to a
+     * link that hasn't been defined yet waits for the end of the input, and an HTML
+     * block may run on to a later line holding just its closing tag.  Neither holds
+     * back more than about a megabyte, so memory is in proportion to the largest
+     * block.
+     * <p>
+     * So there are places where the HTML can differ.  A shortcut, <code>[id]</code>,
+     * is only a link if it has been defined by the time its block is written.  Once a
+     * megabyte or so of blocks are waiting for a definition, they are written with
+     * the definitions found so far, and once a megabyte or so follows an HTML tag
+     * that hasn't been closed, it is no longer kept together as one HTML block.  If a link is defined twice, blocks which have
+     * already been written keep the first definition, and a stray closing tag such as
+     * "&lt;/pre&gt;" on a line of its own can't reach back into them either.
+     *
+     * @param in - input in markdown format
+     * @param out - where to write the HTML
+     * @throws IOException if <code>in</code> or <code>out</code> does.
+     * @throws RenderLimitException if the conversion goes over the limits set by
+     * {@link #setTimeout(long, TimeUnit)} or {@link #setMaxInspections(long)}, in
+     * which case some of the HTML may already have been written.
+     */
+    public void markdown(Reader in, Appendable out) throws IOException {
+        RenderListener listener = this.listener;
+        long start = 0;
+        if (listener != null) {
+            listener.documentStarted(-1);
+            start = System.nanoTime();
+        }
+        StreamRenderer renderer = new StreamRenderer(this, out);
+        RenderBudget previous = RenderBudget.enter(startBudget());
+        BufferPool pool = BufferPool.enter();
+        try {
+            renderer.render(in, tabWidth);
+        } finally {
+            BufferPool.exit(pool);
+            RenderBudget.exit(previous);
+        }
+        if (listener != null) {
+            RenderContext context = renderer.context();
+            listener.documentFinished(clamp(renderer.length()), clamp(renderer.htmlLength()), context.paragraphs,
+                    context.maxListLevel, context.htmlBlockCount(), System.nanoTime() - start);
+        }
+    }
 
-        text.append("\n");
-        return text.toString();
+    private static int clamp(long length) {
+        return (int) Math.min(length, Integer.MAX_VALUE);
     }
 
-    private TextEditor encodeBackslashEscapes(TextEditor text) {
-        char[] normalChars = "`_>!".toCharArray();
-        char[] escapedChars = "*{}[]()#+-.".toCharArray();
+    int getTabWidth() {
+        return tabWidth;
+    }
 
-        // Two backslashes in a row
-        text.replaceAllLiteral("\\\\\\\\", CHAR_PROTECTOR.encode("\\"));
+    /**
+     * Convert many documents at once, each on the executor.  The documents are
+     * taken from <code>documents</code> as they are submitted, so it may be a lazy
+     * sequence rather than a collection held in memory.  All of them are rendered
+     * by this processor, as {@link #markdown(String)} would render them.
+     * <p>
+     * The futures come back in the same order as the documents.  A document which
+     * fails to convert only fails its own future, whose <code>get()</code> throws an
+     * <code>ExecutionException</code> holding the cause; the rest of the batch
+     * carries on.  If the executor rejects a document, it is converted on the
+     * calling thread instead.
+     *
+     * @param documents - inputs in markdown format
+     * @param executor - where to convert them, or <code>null</code> to convert them
+     *                 all on the calling thread before returning
+     * @return one future for each document, holding its HTML.
+     */
+    public List<Future<String>> markdownAll(Iterable<String> documents, Executor executor) {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String document : documents) {
+            FutureTask<String> result = new FutureTask<String>(new Callable<String>() {
+                public String call() {
+                    return markdown(document);
+                }
+            });
+            if (executor == null) {
+                result.run();
+            } else {
+                try {
+                    executor.execute(result);
+                } catch (RejectedExecutionException e) {
+                    result.run();
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
 
-        // Normal characters don't require a backslash in the regular expression
-        encodeEscapes(text, normalChars, "\\\\");
-        encodeEscapes(text, escapedChars, "\\\\\\");
+    /**
+     * Set aside the HTML blocks and strip the link definitions from one block of a
+     * document being streamed.
+     */
+    String prepareBlock(String block, RenderContext context) {
+        TextEditor text = new TextEditor(CharacterPlaceholders.sanitize(block));
+        StageTimer timer = StageTimer.start(listener, text);
+        hashHTMLBlocks(text, context);
+        StageTimer.lap(timer, RenderStage.HASH_HTML_BLOCKS, text);
+        stripLinkDefinitions(text, context);
+        StageTimer.lap(timer, RenderStage.STRIP_LINK_DEFINITIONS, text);
+        return text.toString();
+    }
 
-        return text;
+    /**
+     * Render a block prepared by {@link #prepareBlock(String, RenderContext)}.
+     */
+    String renderBlock(String markup, RenderContext context) {
+        TextEditor text = new TextEditor(markup);
+        if (lineParser) {
+            text = runBlockGamutByBlock(text, context);
+        } else {
+            text = runBlockGamut(text, context, 0);
+        }
+        StageTimer timer = StageTimer.start(listener, text);
+        String html = unEscapeSpecialChars(text.toString());
+        StageTimer.lap(timer, RenderStage.UNESCAPE_SPECIAL_CHARS, text);
+        return html;
     }
 
-    private TextEditor encodeEscapes(TextEditor text, char[] chars, String slashes) {
-        for (char ch : chars) {
-            String regex = slashes + ch;
-            text.replaceAllLiteral(regex, CHAR_PROTECTOR.encode(String.valueOf(ch)));
+    private String convert(String txt, RenderContext context) {
+        StageTimer timer = StageTimer.start(listener, txt);
+
+        // Standardize line endings, expand tabs and empty lines of whitespace, all in
+        // one pass, and make sure the text ends with a couple of newlines.
+        TextEditor text = new TextEditor(LineReader.normalize(txt, tabWidth));
+        StageTimer.lap(timer, RenderStage.NORMALIZE, text);
+        hashHTMLBlocks(text, context);
+        StageTimer.lap(timer, RenderStage.HASH_HTML_BLOCKS, text);
+        stripLinkDefinitions(text, context);
+        StageTimer.lap(timer, RenderStage.STRIP_LINK_DEFINITIONS, text);
+        if (lineParser) {
+            text = runBlockGamutByBlock(text, context);
+        } else {
+            text = runBlockGamut(text, context, 0);
         }
-        return text;
+        timer = StageTimer.start(listener, text);
+        text = new TextEditor(unEscapeSpecialChars(text.toString()));
+        StageTimer.lap(timer, RenderStage.UNESCAPE_SPECIAL_CHARS, text);
+
+        text.append("\n");
+        return text.toString();
     }
 
-    private void stripLinkDefinitions(TextEditor text) {
-        Pattern p = Pattern.compile("^[ ]{0,3}\\[(.+)\\]:" + // ID = $1
-                "[ \\t]*\\n?[ \\t]*" + // Space
-                "<?(\\S+?)>?" + // URL = $2
-                "[ \\t]*\\n?[ \\t]*" + // Space
-                "(?:[\"(](.+?)[\")][ \\t]*)?" + // Optional title = $3
-                "(?:\\n+|\\Z)",
-                Pattern.MULTILINE);
+    private TextEditor encodeBackslashEscapes(TextEditor text) {
+        return text.escape(Escaper.BACKSLASH_ESCAPES);
+    }
 
-        text.replaceAll(p, new Replacement() {
+    private static final Pattern LINK_DEFINITION = Pattern.compile("^[ ]{0,3}\\[(.+)\\]:" + // ID = $1
+            "[ \\t]*\\n?[ \\t]*" + // Space
+            "<?(\\S+?)>?" + // URL = $2
+            "[ \\t]*\\n?[ \\t]*" + // Space
+            "(?:[\"(](.+?)[\")][ \\t]*)?" + // Optional title = $3
+            "(?:\\n+|\\Z)",
+            Pattern.MULTILINE);
+    private static final Pattern QUOTE = Pattern.compile("\"");
+
+    private void stripLinkDefinitions(TextEditor text, final RenderContext context) {
+        text.replaceAll(LINK_DEFINITION, new Replacement() {
             public String replacement(Matcher m) {
                 String id = m.group(1).toLowerCase();
                 String url = encodeAmpsAndAngles(new TextEditor(m.group(2))).toString();
@@ -137,33 +521,189 @@ public class MarkdownProcessor {
                 if (title == null) {
                     title = "";
                 }
-                title = replaceAll(title, "\"", "&quot;");
-                linkDefinitions.put(id, new LinkDefinition(url, title));
+                title = QUOTE.matcher(title).replaceAll("&quot;");
+                context.linkDefinitions.put(id, new LinkDefinition(url, title));
                 return "";
             }
         });
     }
 
+    /**
+     * Convert block-level Markdown to HTML.  The text is converted on its own, so
+     * it can't refer to link definitions from any other document.
+     */
     public TextEditor runBlockGamut(TextEditor text) {
+        return runBlockGamut(text, new RenderContext(), 0);
+    }
+
+    /**
+     * @param listLevel  How many list items the text is inside.
+     */
+    private TextEditor runBlockGamut(TextEditor text, RenderContext context, int listLevel) {
+        StageTimer timer = StageTimer.start(listener, text);
         doHeaders(text);
+        StageTimer.lap(timer, RenderStage.HEADERS, text);
         doHorizontalRules(text);
-        doLists(text);
+        StageTimer.lap(timer, RenderStage.HORIZONTAL_RULES, text);
+        doLists(text, context, listLevel);
+        StageTimer.lap(timer, RenderStage.LISTS, text);
         doCodeBlocks(text);
-        doBlockQuotes(text);
+        StageTimer.lap(timer, RenderStage.CODE_BLOCKS, text);
+        doBlockQuotes(text, context, listLevel);
+        StageTimer.lap(timer, RenderStage.BLOCK_QUOTES, text);
+
+        hashHTMLBlocks(text, context);
+        StageTimer.lap(timer, RenderStage.HASH_HTML_BLOCKS, text);
+
+        TextEditor html = formParagraphs(text, context);
+        StageTimer.lap(timer, RenderStage.PARAGRAPHS, html);
+        return html;
+    }
+
+    /**
+     * Same output as runBlockGamut(), but each top-level block found by the
+     * BlockScanner is rendered separately, so no stage ever has to look past
+     * the end of the block it is working on.
+     */
+    private TextEditor runBlockGamutByBlock(TextEditor text, RenderContext context) {
+        StageTimer timer = StageTimer.start(listener, text);
+        String markup = text.toString();
+        BlockScanner scanner = new BlockScanner(markup);
+        List<String> blocks = new ArrayList<String>();
+        List<Boolean> paragraphs = new ArrayList<Boolean>();
+        while (scanner.find()) {
+            String block = markup.substring(scanner.start(), scanner.end());
+            if (scanner.isParagraph()) {
+                blocks.add(trimNewlines(block));
+                paragraphs.add(Boolean.TRUE);
+            } else {
+                blocks.add(block);
+                paragraphs.add(Boolean.FALSE);
+            }
+        }
+        boolean[] isParagraph = new boolean[paragraphs.size()];
+        for (int i = 0; i < isParagraph.length; i++) {
+            isParagraph[i] = paragraphs.get(i);
+        }
+        StageTimer.lap(timer, RenderStage.BLOCK_SCAN, text);
+        String[] out = renderBlocks(blocks.toArray(new String[blocks.size()]), isParagraph, markup.length(), context);
+        StringBuilder html = new StringBuilder(markup.length() + markup.length() / 4);
+        for (String block : out) {
+            if (block.length() > 0) {
+                if (html.length() > 0) {
+                    html.append("\n\n");
+                }
+                html.append(block);
+            }
+        }
+        return new TextEditor(html);
+    }
+
+    /**
+     * Render each block, on the executor if the markup they come from is long
+     * enough, and return the HTML for each in the same order.
+     */
+    private String[] renderBlocks(final String[] blocks, final boolean[] isParagraph, int length, RenderContext context) {
+        final String[] html = new String[blocks.length];
+        if (executor == null || length < parallelThreshold || blocks.length < 2) {
+            for (int i = 0; i < blocks.length; i++) {
+                html[i] = renderBlock(blocks[i], isParagraph[i], context);
+            }
+            return html;
+        }
+
+        final RenderBudget budget = RenderBudget.current();
+        List<FutureTask<RenderContext>> chunks = new ArrayList<FutureTask<RenderContext>>();
+        int end = 0;
+        while (end < blocks.length) {
+            final int start = end;
+            int size = 0;
+            while (end < blocks.length && size < PARALLEL_CHUNK_SIZE) {
+                size += blocks[end++].length();
+            }
+            final int chunkEnd = end;
+            final RenderContext chunkContext = context.fork();
+            FutureTask<RenderContext> chunk = new FutureTask<RenderContext>(new Runnable() {
+                public void run() {
+                    RenderBudget previous = RenderBudget.enter(budget);
+                    BufferPool pool = BufferPool.enter();
+                    try {
+                        for (int i = start; i < chunkEnd; i++) {
+                            html[i] = renderBlock(blocks[i], isParagraph[i], chunkContext);
+                        }
+                    } finally {
+                        BufferPool.exit(pool);
+                        RenderBudget.exit(previous);
+                    }
+                }
+            }, chunkContext);
+            try {
+                executor.execute(chunk);
+            } catch (RejectedExecutionException e) {
+                // It will be run below, on this thread.
+            }
+            chunks.add(chunk);
+        }
+
+        boolean interrupted = false;
+        try {
+            for (FutureTask<RenderContext> chunk : chunks) {
+                chunk.run(); // Does nothing if the executor has already started it.
+                while (true) {
+                    try {
+                        context.join(chunk.get());
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw (RuntimeException) cause;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return html;
+    }
 
-        hashHTMLBlocks(text);
+    private String renderBlock(String block, boolean isParagraph, RenderContext context) {
+        if (isParagraph) {
+            return formParagraph(block, context);
+        }
+        return runBlockGamut(new TextEditor(block), context, 0).toString();
+    }
 
-        return formParagraphs(text);
+    private String trimNewlines(String s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) == '\n') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) == '\n') {
+            end--;
+        }
+        return s.substring(start, end);
     }
 
+    private static final Pattern[] HORIZONTAL_RULES = {
+        Pattern.compile("^[ ]{0,2}([ ]?\\*[ ]?){3,}[ ]*$", Pattern.MULTILINE),
+        Pattern.compile("^[ ]{0,2}([ ]?-[ ]?){3,}[ ]*$", Pattern.MULTILINE),
+        Pattern.compile("^[ ]{0,2}([ ]?_[ ]?){3,}[ ]*$", Pattern.MULTILINE)
+    };
+
     private void doHorizontalRules(TextEditor text) {
-        String[] hrDelimiters = {"\\*", "-", "_"};
-        for (String hrDelimiter : hrDelimiters) {
-            text.replaceAll("^[ ]{0,2}([ ]?" + hrDelimiter + "[ ]?){3,}[ ]*$", "<hr />");
+        for (Pattern hr : HORIZONTAL_RULES) {
+            text.replaceAll(hr, "<hr />");
         }
     }
 
-    private void hashHTMLBlocks(TextEditor text) {
+    private void hashHTMLBlocks(TextEditor text, RenderContext context) {
         // Hashify HTML blocks:
         // We only want to do this for block-level HTML tags, such as headers,
         // lists, and tables. That's because we still want to wrap <p>s around
@@ -171,15 +711,6 @@ public class MarkdownProcessor {
         // phrase emphasis, and spans. The list of tags we're looking for is
         // hard-coded:
 
-        String[] tagsA = {
-            "p", "div", "h1", "h2", "h3", "h4", "h5", "h6", "blockquote", "pre", "table",
-            "dl", "ol", "ul", "script", "noscript", "form", "fieldset", "iframe", "math"
-        };
-        String[] tagsB = {"ins", "del"};
-
-        String alternationA = join("|", tagsA);
-        String alternationB = alternationA + "|" + join("|", tagsB);
-
         int less_than_tab = tabWidth - 1;
 
         // First, look for nested blocks, e.g.:
@@ -193,116 +724,92 @@ public class MarkdownProcessor {
         // the inner nested divs must be indented.
         // We need to do this before the next, more liberal match, because the next
         // match will start at the first `<div>` and stop at the first `</div>`.
-        Pattern p1 = Pattern.compile("(" +
-                "^<(" + alternationA + ")" +
-                "\\b" +
-                "(.*\\n)*?" +
-                "</\\2>" +
-                "[ ]*" +
-                "(?=\\n+|\\Z))", Pattern.MULTILINE |  Pattern.CASE_INSENSITIVE);
-
-        Replacement protectHTML = new Replacement() {
-            public String replacement(Matcher m) {
-                String literal = m.group();
-                return "\n\n" + HTML_PROTECTOR.encode(literal) + "\n\n";
-            }
-        };
-        text.replaceAll(p1, protectHTML);
+        CharacterProtector protector = context.htmlProtector();
+        text.protectHtmlBlocks(HtmlBlockFinder.Kind.NESTED, less_than_tab, protector);
 
         // Now match more liberally, simply from `\n<tag>` to `</tag>\n`
-        Pattern p2 = Pattern.compile("(" +
-                "^" +
-                "<(" + alternationB + ")" +
-                "\\b" +
-                "(.*\\n)*?" +
-                ".*</\\2>" +
-                "[ ]*" +
-                "(?=\\n+|\\Z))", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
-        text.replaceAll(p2, protectHTML);
+        text.protectHtmlBlocks(HtmlBlockFinder.Kind.BLOCK, less_than_tab, protector);
 
         // Special case for <hr>
-        Pattern p3 = Pattern.compile("(?:" +
-                "(?<=\\n\\n)" +
-                "|" +
-                "\\A\\n?" +
-                ")" +
-                "(" +
-                "[ ]{0," + less_than_tab + "}" +
-                "<(hr)" +
-                "\\b" +
-                "([^<>])*?" +
-                "/?>" +
-                "[ ]*" +
-                "(?=\\n{2,}|\\Z))", Pattern.CASE_INSENSITIVE);
-        text.replaceAll(p3, protectHTML);
+        text.protectHtmlBlocks(HtmlBlockFinder.Kind.RULE, less_than_tab, protector);
 
         // Special case for standalone HTML comments:
-        Pattern p4 = Pattern.compile("(?:" +
-                "(?<=\\n\\n)" +
-                "|" +
-                "\\A\\n?" +
-                ")" +
-                "(" +
-                "[ ]{0," + less_than_tab + "}" +
-                "(?s:" +
-                "<!" +
-                "(--.*?--\\s*)+" +
-                ">" +
-                ")" +
-                "[ ]*" +
-                "(?=\\n{2,}|\\Z)" +
-                ")");
-        text.replaceAll(p4, protectHTML);
-    }
-
-    private TextEditor formParagraphs(TextEditor markup) {
-        markup.deleteAll("\\A\\n+");
-        markup.deleteAll("\\n+\\z");
+        text.protectHtmlBlocks(HtmlBlockFinder.Kind.COMMENT, less_than_tab, protector);
+    }
+
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\n{2,}");
+    private static final Pattern LEADING_NEWLINES = Pattern.compile("\\A\\n+");
+    private static final Pattern TRAILING_NEWLINES = Pattern.compile("\\n+\\z");
 
+    private TextEditor formParagraphs(TextEditor markup, RenderContext context) {
+        markup.deleteAll(LEADING_NEWLINES);
+        markup.deleteAll(TRAILING_NEWLINES);
+
+        String text = markup.toString();
         String[] paragraphs;
-        if (markup.isEmpty()) {
+        if (text.length() == 0) {
             paragraphs = new String[0];
         } else {
-            paragraphs = Pattern.compile("\\n{2,}").split(markup.toString());
+            paragraphs = PARAGRAPH_BREAK.split(text);
         }
-        for (int i = 0; i < paragraphs.length; i++) {
-            String paragraph = paragraphs[i];
-            String decoded = HTML_PROTECTOR.decode(paragraph);
-            if (decoded != null) {
-                paragraphs[i] = decoded;
-            } else {
-                paragraph = runSpanGamut(new TextEditor(paragraph)).toString();
-                paragraphs[i] = "<p>" + paragraph + "</p>";
+        boolean[] isParagraph = new boolean[paragraphs.length];
+        Arrays.fill(isParagraph, true);
+        paragraphs = renderBlocks(paragraphs, isParagraph, text.length(), context);
+        return new TextEditor(join("\n\n", paragraphs));
+    }
+
+    private String formParagraph(String paragraph, RenderContext context) {
+        String decoded = context.decodeHtml(paragraph);
+        if (decoded != null) {
+            return decoded;
+        }
+        context.paragraphs++;
+        RenderCache cache = fragmentCache;
+        if (cache == null) {
+            return "<p>" + runSpanGamut(new TextEditor(paragraph), context).toString() + "</p>";
+        }
+        RenderCache.Key key = RenderCache.key("paragraph," + settings(), paragraph);
+        String html = cache.getFragment(key, context);
+        if (html == null) {
+            Map<String, LinkDefinition> outer = context.lookups;
+            boolean missing = context.missingLinkDefinition;
+            context.lookups = new HashMap<String, LinkDefinition>();
+            context.missingLinkDefinition = false;
+            html = "<p>" + runSpanGamut(new TextEditor(paragraph), context).toString() + "</p>";
+            cache.putFragment(key, html, context.lookups, context.missingLinkDefinition);
+            if (outer != null) {
+                outer.putAll(context.lookups);
             }
+            context.lookups = outer;
+            context.missingLinkDefinition |= missing;
         }
-        return new TextEditor(join("\n\n", paragraphs));
+        return html;
     }
 
 
-    private TextEditor doAutoLinks(TextEditor markup) {
-        markup.replaceAll("<((https?|ftp):[^'\">\\s]+)>", "<a href=\"$1\">$1</a>");
-        Pattern email = Pattern.compile("<([-.\\w]+\\@[-a-z0-9]+(\\.[-a-z0-9]+)*\\.[a-z]+)>");
-        markup.replaceAll(email, new Replacement() {
+    private static final Pattern AUTO_LINK = Pattern.compile("<((https?|ftp):[^'\">\\s]+)>");
+    private static final Pattern EMAIL = Pattern.compile(
+            "<([-.\\w" + CharacterPlaceholders.CHARACTER_CLASS + "]+\\@[-a-z0-9]+(\\.[-a-z0-9]+)*\\.[a-z]+)>");
+
+    private TextEditor doAutoLinks(TextEditor markup, final RenderContext context) {
+        markup.replaceAll(AUTO_LINK, "<a href=\"$1\">$1</a>");
+        markup.replaceAll(EMAIL, new Replacement() {
             public String replacement(Matcher m) {
                 String address = m.group(1);
-                TextEditor ed = new TextEditor(address);
-                unEscapeSpecialChars(ed);
-                String addr = encodeEmail(ed.toString());
-                String url = encodeEmail("mailto:" + ed.toString());
+                String unescaped = unEscapeSpecialChars(address);
+                String addr = encodeEmail(unescaped, context.random());
+                String url = encodeEmail("mailto:" + unescaped, context.random());
                 return "<a href=\"" + url + "\">" + addr + "</a>";
             }
         });
         return markup;
     }
 
-    private void unEscapeSpecialChars(TextEditor ed) {
-        for (String hash : CHAR_PROTECTOR.getAllEncodedTokens()) {
-            String plaintext = CHAR_PROTECTOR.decode(hash);
-            ed.replaceAllLiteral(hash, plaintext);
-        }
+    private String unEscapeSpecialChars(String text) {
+        return CharacterPlaceholders.decode(text);
     }
 
-    private String encodeEmail(String s) {
+    static String encodeEmail(String s, Random rnd) {
         StringBuilder sb = new StringBuilder();
         char[] email = s.toCharArray();
         for (char ch : email) {
@@ -322,53 +829,87 @@ public class MarkdownProcessor {
         return sb.toString();
     }
 
-    private TextEditor doBlockQuotes(TextEditor markup) {
-        Pattern p = Pattern.compile("(" +
-                "(" +
-                "^[ \t]*>[ \t]?" + // > at the start of a line
-                ".+\\n" + // rest of the first line
-                "(.+\\n)*" + // subsequent consecutive lines
-                "\\n*" + // blanks
-                ")+" +
-                ")", Pattern.MULTILINE);
-        return markup.replaceAll(p, new Replacement() {
+    private static final Pattern BLOCK_QUOTE = Pattern.compile("(" +
+            "(" +
+            "^[ \t]*>[ \t]?" + // > at the start of a line
+            ".+\\n" + // rest of the first line
+            "(.+\\n)*" + // subsequent consecutive lines
+            "\\n*" + // blanks
+            ")+" +
+            ")", Pattern.MULTILINE);
+    private static final Pattern BLOCK_QUOTE_MARKER = Pattern.compile("^[ \t]*>[ \t]?", Pattern.MULTILINE);
+    private static final Pattern BLANK_LINE = Pattern.compile("^[ \t]+$", Pattern.MULTILINE);
+
+    private TextEditor doBlockQuotes(TextEditor markup, final RenderContext context, final int listLevel) {
+        return markup.replaceAll(BLOCK_QUOTE, new Replacement() {
             public String replacement(Matcher m) {
                 TextEditor blockQuote = new TextEditor(m.group(1));
-                blockQuote.deleteAll("^[ \t]*>[ \t]?");
-                blockQuote.deleteAll("^[ \t]+$");
-                blockQuote = runBlockGamut(blockQuote);
-                blockQuote.replaceAll("^", "  ");
-
-
-                Pattern p1 = Pattern.compile("(\\s*<pre>.*?</pre>)", Pattern.DOTALL);
-                blockQuote = blockQuote.replaceAll(p1, new Replacement() {
-                    public String replacement(Matcher m1) {
-                        String pre = m1.group(1);
-                        return deleteAll(pre, "^  ");
-                    }
-                });
-                return "<blockquote>\n" + blockQuote + "\n</blockquote>\n\n";
+                blockQuote.deleteAll(BLOCK_QUOTE_MARKER);
+                blockQuote.deleteAll(BLANK_LINE);
+                blockQuote = runBlockGamut(blockQuote, context, listLevel);
+                blockQuote.indent(2);
+                return "<blockquote>\n" + outdentPreBlocks(blockQuote.toString()) + "\n</blockquote>\n\n";
             }
         });
     }
 
+    /**
+     * Apply <code>(\s*&lt;pre&gt;.*?&lt;/pre&gt;)</code> -&gt; the match with "  " taken
+     * off the start of each line.  Each match starts where the whitespace before its
+     * "&lt;pre&gt;" does, so look back for that rather than trying the pattern from
+     * every place in the whitespace, which is slow once nested blockquotes have
+     * indented their lines a long way.
+     */
+    private static final Pattern PRE_INDENT = Pattern.compile("^  ", Pattern.MULTILINE);
+
+    private String outdentPreBlocks(String html) {
+        StringBuilder sb = null;
+        int last = 0;
+        for (int pre = html.indexOf("<pre>"); pre >= 0; pre = html.indexOf("<pre>", last)) {
+            int close = html.indexOf("</pre>", pre + 5);
+            if (close < 0) {
+                break;
+            }
+            int start = pre;
+            while (start > last && isWhitespace(html.charAt(start - 1))) {
+                start--;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(html.length());
+            }
+            sb.append(html, last, start).append(deleteAll(html.substring(start, close + 6), PRE_INDENT));
+            last = close + 6;
+        }
+        return sb == null ? html : sb.append(html, last, html.length()).toString();
+    }
+
+    /**
+     * @return whether <code>\s</code> matches the character.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static final Pattern CODE_BLOCK = Pattern.compile("" +
+            "(?:\\n\\n|\\A)" +
+            "((?:" +
+            "(?:[ ]{4})" +
+            ".*\\n+" +
+            ")+" +
+            ")" +
+            "((?=^[ ]{0,4}\\S)|\\Z)", Pattern.MULTILINE);
+
+    private static final Pattern TRAILING_SPACE = Pattern.compile("\\s+\\z");
+
     private TextEditor doCodeBlocks(TextEditor markup) {
-        Pattern p = Pattern.compile("" +
-                "(?:\\n\\n|\\A)" +
-                "((?:" +
-                "(?:[ ]{4})" +
-                ".*\\n+" +
-                ")+" +
-                ")" +
-                "((?=^[ ]{0,4}\\S)|\\Z)", Pattern.MULTILINE);
-        return markup.replaceAll(p, new Replacement() {
+        return markup.replaceAll(CODE_BLOCK, new Replacement() {
         			private static final String LANG_IDENTIFIER = "lang:";
                     public String replacement(Matcher m) {
                         String codeBlock = m.group(1);
                         TextEditor ed = new TextEditor(codeBlock);
                         ed.outdent();
                         encodeCode(ed);
-                        ed.detabify().deleteAll("\\A\\n+").deleteAll("\\s+\\z");
+                        ed.detabify().deleteAll(LEADING_NEWLINES).deleteAll(TRAILING_SPACE);
                         String text = ed.toString();
                         String out;
                         String firstLine = firstLine(text);
@@ -385,8 +926,8 @@ public class MarkdownProcessor {
                         if (text == null) {
                             return "";
                         }
-                        String[] splitted = text.split("\\n");
-                        return splitted[0];
+                        int newline = text.indexOf('\n');
+                        return newline < 0 ? text : text.substring(0, newline);
                     }
 
                     public boolean isLanguageIdentifier(String line)
@@ -396,7 +937,7 @@ public class MarkdownProcessor {
                         }
                         String lang = "";
                         if (line.startsWith(LANG_IDENTIFIER)) {
-                        	lang = line.replaceFirst(LANG_IDENTIFIER, "").trim();
+                        	lang = line.substring(LANG_IDENTIFIER.length()).trim();
                         }
                         return lang.length() > 0;
                     }
@@ -406,8 +947,8 @@ public class MarkdownProcessor {
                         // dont'use %n in format string (markdown aspect every new line char as "\n")
                     	//String codeBlockTemplate = "<pre class=\"brush: %s\">%n%s%n</pre>"; // http://alexgorbatchev.com/wiki/SyntaxHighlighter
                         String codeBlockTemplate = "\n\n<pre class=\"%s\">\n%s\n</pre>\n\n"; // http://shjs.sourceforge.net/doc/documentation.html
-                        String lang = firstLine.replaceFirst(LANG_IDENTIFIER, "").trim();
-                        String block = text.replaceFirst( firstLine+"\n", "");
+                        String lang = firstLine.substring(LANG_IDENTIFIER.length()).trim();
+                        String block = text.length() > firstLine.length() ? text.substring(firstLine.length() + 1) : text;
                         return String.format(codeBlockTemplate, lang, block);
                     }
                     public String genericCodeBlock(String text)
@@ -420,179 +961,157 @@ public class MarkdownProcessor {
     }
 
     private void encodeCode(TextEditor ed) {
-        ed.replaceAll("&", "&amp;");
-        ed.replaceAll("<", "&lt;");
-        ed.replaceAll(">", "&gt;");
-        ed.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-        ed.replaceAll("_", CHAR_PROTECTOR.encode("_"));
-        ed.replaceAll("\\{", CHAR_PROTECTOR.encode("{"));
-        ed.replaceAll("\\}", CHAR_PROTECTOR.encode("}"));
-        ed.replaceAll("\\[", CHAR_PROTECTOR.encode("["));
-        ed.replaceAll("\\]", CHAR_PROTECTOR.encode("]"));
-        ed.replaceAll("\\\\", CHAR_PROTECTOR.encode("\\"));
-    }
-
-    private TextEditor doLists(TextEditor text) {
-        int lessThanTab = tabWidth - 1;
-
-        String wholeList =
-                "(" +
-                "(" +
-                "[ ]{0," + lessThanTab + "}" +
-                "((?:[-+*]|\\d+[.]))" + // $3 is first list item marker
-                "[ ]+" +
-                ")" +
-                "(?s:.+?)" +
-                "(" +
-                "\\z" + // End of input is OK
-                "|" +
-                "\\n{2,}" +
-                "(?=\\S)" + // If not end of input, then a new para
-                "(?![ ]*" +
-                "(?:[-+*]|\\d+[.])" +
-                "[ ]+" +
-                ")" + // negative lookahead for another list marker
-                ")" +
-                ")";
-
-        if (listLevel > 0) {
-            Replacement replacer = new Replacement() {
-                public String replacement(Matcher m) {
-                    String list = m.group(1);
-                    String listStart = m.group(3);
-                    String listType;
-
-                    if (listStart.matches("[*+-]")) {
-                        listType = "ul";
-                    } else {
-                        listType = "ol";
-                    }
-
-                    // Turn double returns into triple returns, so that we can make a
-                    // paragraph for the last item in a list, if necessary:
-                    list = replaceAll(list, "\\n{2,}", "\n\n\n");
+        ed.escape(Escaper.CODE);
+    }
 
-                    String result = processListItems(list);
+    private static final Pattern TRAILING_WHITESPACE = Pattern.compile("\\s+$");
 
-                    // Trim any trailing whitespace, to put the closing `</ol>` or `</ul>`
-                    // up on the preceding line, to get it past the current stupid
-                    // HTML block parser. This is a hack to work around the terrible
-                    // hack that is the HTML block parser.
-                    result = result.replaceAll("\\s+$", "");
+    private TextEditor doLists(TextEditor text, final RenderContext context, final int listLevel) {
+        return text.replaceLists(listLevel > 0, tabWidth - 1, new ListFinder.Renderer() {
+            public String render(String list, boolean ordered) {
+                return renderList(list, ordered, listLevel, context);
+            }
+        });
+    }
 
-                    String html;
-                    if ("ul".equals(listType)) {
-                        html = "<ul>" + result + "</ul>\n";
+    /**
+     * Render a list which doLists() found <code>listLevel</code> list items deep.
+     * <p>
+     * The list level matters because when we're not inside a list, we want to
+     * treat something like this:
+     * <pre>
+     *       I recommend upgrading to version
+     *       8. Oops, now this line is treated
+     *       as a sub-list.
+     * </pre>
+     * As a single paragraph, despite the fact that the second line starts
+     * with a digit-period-space sequence.
+     * <p>
+     * Whereas when we're inside a list (or sub-list), that line will be
+     * treated as the start of a sub-list. What a kludge, huh? This is
+     * an aspect of Markdown's syntax that's hard to parse perfectly
+     * without resorting to mind-reading. Perhaps the solution is to
+     * change the syntax rules such that sub-lists must start with a
+     * starting cardinal number; e.g. "1." or "a.".
+     * <p>
+     * An item with a blank line in it, or before it, is rendered by the block
+     * gamut.  Any other item can only hold lists, which are rendered before the
+     * item's text is run through the span gamut.  Rather than recursing for each
+     * level of those, the levels still being rendered are kept on a stack, so
+     * lists can be nested as deeply as the text likes.
+     */
+    private String renderList(String list, boolean ordered, int listLevel, RenderContext context) {
+        List<ListLevel> stack = new ArrayList<ListLevel>();
+        stack.add(new ListLevel(null, listLevel, tabWidth - 1));
+        stack.get(0).open(list, ordered, context);
+        String itemText = null;
+        while (true) {
+            ListLevel level = stack.get(stack.size() - 1);
+            if (itemText != null) {
+                // The item's lists are done, so the rest of it can be.
+                level.addItem(runSpanGamut(new TextEditor(itemText), context));
+                itemText = null;
+            }
+            if (level.items != null) {
+                ListFinder.Items items = level.items;
+                if (items.find()) {
+                    level.html.append(level.list, level.itemsCopied, items.start());
+                    level.itemsCopied = items.end();
+                    String text = level.list.substring(items.contentStart(), items.end());
+                    TextEditor item = new TextEditor(text).outdent();
+                    if (items.followsBlankLine() || text.indexOf("\n\n") != -1) {
+                        level.addItem(runBlockGamut(item, context, level.listLevel + 1));
                     } else {
-                        html = "<ol>" + result + "</ol>\n";
+                        stack.add(new ListLevel(item.toString(), level.listLevel + 1, tabWidth - 1));
                     }
-                    return html;
+                    continue;
                 }
-            };
-            Pattern matchStartOfLine = Pattern.compile("^" + wholeList, Pattern.MULTILINE);
-            text.replaceAll(matchStartOfLine, replacer);
-        } else {
-            Replacement replacer = new Replacement() {
-                public String replacement(Matcher m) {
-                    String list = m.group(1);
-                    String listStart = m.group(3);
-                    String listType;
-
-                    if (listStart.matches("[*+-]")) {
-                     listType = "ul";
-                    } else {
-                     listType = "ol";
-                    }
-
-                    // Turn double returns into triple returns, so that we can make a
-                    // paragraph for the last item in a list, if necessary:
-                    list = replaceAll(list, "\n{2,}", "\n\n\n");
-
-                    String result = processListItems(list);
-
-                    String html;
-                    if ("ul".equals(listType)) {
-                        html = "<ul>\n" + result + "</ul>\n";
-                    } else {
-                        html = "<ol>\n" + result + "</ol>\n";
-                    }
+                String html = level.close();
+                if (level.text == null) {
                     return html;
                 }
-            };
-            Pattern matchStartOfLine = Pattern.compile("(?:(?<=\\n\\n)|\\A\\n?)" + wholeList, Pattern.MULTILINE);
-            text.replaceAll(matchStartOfLine, replacer);
+                level.rendered.append(html);
+            } else if (level.lists.find()) {
+                ListFinder lists = level.lists;
+                level.rendered.append(level.text, level.copied, lists.start());
+                level.copied = lists.end();
+                level.open(level.text.substring(lists.listStart(), lists.end()), lists.ordered(), context);
+            } else {
+                level.rendered.append(level.text, level.copied, level.text.length());
+                stack.remove(stack.size() - 1);
+                itemText = level.rendered.toString();
+            }
+        }
+    }
+
+    /**
+     * The text of a list item whose lists are being rendered by renderList(), and
+     * the list in it being rendered now.  The first level on the stack has no
+     * text, only the list doLists() found.
+     */
+    private static final class ListLevel {
+        final String text;
+        final int listLevel;
+        final ListFinder lists;
+        // The item's text with its lists rendered, up to where it has been copied.
+        final StringBuilder rendered = new StringBuilder();
+        int copied;
+
+        String list;
+        boolean ordered;
+        ListFinder.Items items;
+        // The items rendered so far, and up to where the list has been copied.
+        StringBuilder html;
+        int itemsCopied;
+
+        ListLevel(String text, int listLevel, int lessThanTab) {
+            this.text = text;
+            this.listLevel = listLevel;
+            this.lists = text != null ? new ListFinder(text, listLevel > 0, lessThanTab) : null;
+        }
 
+        void open(String list, boolean ordered, RenderContext context) {
+            context.maxListLevel = Math.max(context.maxListLevel, listLevel + 1);
+            this.list = ListFinder.spaceItems(list);
+            this.ordered = ordered;
+            items = new ListFinder.Items(this.list);
+            html = new StringBuilder(this.list.length() + 32);
+            itemsCopied = 0;
         }
 
-        return text;
-    }
+        void addItem(TextEditor item) {
+            html.append("<li>").append(item.trim().toString()).append("</li>\n");
+        }
 
-    private String processListItems(String list) {
-        // The listLevel variable keeps track of when we're inside a list.
-        // Each time we enter a list, we increment it; when we leave a list,
-        // we decrement. If it's zero, we're not in a list anymore.
-        //
-        // We do this because when we're not inside a list, we want to treat
-        // something like this:
-        //
-        //       I recommend upgrading to version
-        //       8. Oops, now this line is treated
-        //       as a sub-list.
-        //
-        // As a single paragraph, despite the fact that the second line starts
-        // with a digit-period-space sequence.
-        //
-        // Whereas when we're inside a list (or sub-list), that line will be
-        // treated as the start of a sub-list. What a kludge, huh? This is
-        // an aspect of Markdown's syntax that's hard to parse perfectly
-        // without resorting to mind-reading. Perhaps the solution is to
-        // change the syntax rules such that sub-lists must start with a
-        // starting cardinal number; e.g. "1." or "a.".
-        listLevel++;
-
-        // Trim trailing blank lines:
-        list = replaceAll(list, "\\n{2,}\\z", "\n");
-
-        Pattern p = Pattern.compile("(\\n)?" +
-                "^([ \\t]*)([-+*]|\\d+[.])[ ]+" +
-                "((?s:.+?)(\\n{1,2}))" +
-                "(?=\\n*(\\z|\\2([-+\\*]|\\d+[.])[ \\t]+))",
-                Pattern.MULTILINE);
-        list = replaceAll(list, p, new Replacement() {
-            public String replacement(Matcher m) {
-                String text = m.group(4);
-                TextEditor item = new TextEditor(text);
-                String leadingLine = m.group(1);
-                if (!isEmptyString(leadingLine) || hasParagraphBreak(item)) {
-                    item = runBlockGamut(item.outdent());
-                } else {
-                    // Recurse sub-lists
-                    item = doLists(item.outdent());
-                    item = runSpanGamut(item);
-                }
-                return "<li>" + item.trim().toString() + "</li>\n";
+        String close() {
+            html.append(list, itemsCopied, list.length());
+            String result = html.toString();
+            items = null;
+            html = null;
+            String type = ordered ? "ol" : "ul";
+            if (listLevel > 0) {
+                // Trim any trailing whitespace, to put the closing `</ol>` or `</ul>`
+                // up on the preceding line, to get it past the current stupid
+                // HTML block parser. This is a hack to work around the terrible
+                // hack that is the HTML block parser.
+                result = TRAILING_WHITESPACE.matcher(result).replaceAll("");
+                return "<" + type + ">" + result + "</" + type + ">\n";
             }
-        });
-        listLevel--;
-        return list;
-    }
-
-    private boolean hasParagraphBreak(TextEditor item) {
-        return item.toString().indexOf("\n\n") != -1;
+            return "<" + type + ">\n" + result + "</" + type + ">\n";
+        }
     }
 
-    private boolean isEmptyString(String leadingLine) {
-        return leadingLine == null || leadingLine.equals("");
-    }
+    private static final Pattern SETEXT_H1 = Pattern.compile("^(.*)\n====+$", Pattern.MULTILINE);
+    private static final Pattern SETEXT_H2 = Pattern.compile("^(.*)\n----+$", Pattern.MULTILINE);
+    private static final Pattern ATX_HEADER = Pattern.compile("^(#{1,6})\\s*(.*?)\\s*\\1?$", Pattern.MULTILINE);
 
     private TextEditor doHeaders(TextEditor markup) {
         // setext-style headers
-        markup.replaceAll("^(.*)\n====+$", "<h1>$1</h1>");
-        markup.replaceAll("^(.*)\n----+$", "<h2>$1</h2>");
+        markup.replaceAll(SETEXT_H1, "<h1>$1</h1>");
+        markup.replaceAll(SETEXT_H2, "<h2>$1</h2>");
 
         // atx-style headers - e.g., "#### heading 4 ####"
-        Pattern p = Pattern.compile("^(#{1,6})\\s*(.*?)\\s*\\1?$", Pattern.MULTILINE);
-        markup.replaceAll(p, new Replacement() {
+        markup.replaceAll(ATX_HEADER, new Replacement() {
             public String replacement(Matcher m) {
                 String marker = m.group(1);
                 String heading = m.group(2);
@@ -604,7 +1123,7 @@ public class MarkdownProcessor {
         return markup;
     }
 
-    private String join(String separator, String[] strings) {
+    private static String join(String separator, String[] strings) {
         int length = strings.length;
         StringBuilder buf = new StringBuilder();
         if (length > 0) {
@@ -616,26 +1135,52 @@ public class MarkdownProcessor {
         return buf.toString();
     }
 
+    /**
+     * Convert span-level Markdown to HTML.  The text is converted on its own, so
+     * it can't refer to link definitions from any other document.
+     */
     public TextEditor runSpanGamut(TextEditor text) {
+        return runSpanGamut(text, new RenderContext());
+    }
+
+    private static final Pattern LINE_BREAK = Pattern.compile(" {2,}\n");
+
+    private TextEditor runSpanGamut(TextEditor text, RenderContext context) {
+        StageTimer timer = StageTimer.start(listener, text);
+        if (inlineLexer) {
+            text = new TextEditor(new InlineLexer(context).render(text.toString()));
+            StageTimer.lap(timer, RenderStage.INLINE_LEXER, text);
+            return text;
+        }
         text = escapeSpecialCharsWithinTagAttributes(text);
+        StageTimer.lap(timer, RenderStage.ESCAPE_TAG_ATTRIBUTES, text);
         text = doCodeSpans(text);
+        StageTimer.lap(timer, RenderStage.CODE_SPANS, text);
         text = encodeBackslashEscapes(text);
+        StageTimer.lap(timer, RenderStage.BACKSLASH_ESCAPES, text);
 
-        doImages(text);
-        doAnchors(text);
-        doAutoLinks(text);
+        doImages(text, context);
+        StageTimer.lap(timer, RenderStage.IMAGES, text);
+        doAnchors(text, context);
+        StageTimer.lap(timer, RenderStage.ANCHORS, text);
+        doAutoLinks(text, context);
+        StageTimer.lap(timer, RenderStage.AUTO_LINKS, text);
 
         // Fix for BUG #1357582
         // We must call escapeSpecialCharsWithinTagAttributes() a second time to
         // escape the contents of any attributes generated by the prior methods.
         // - Nathan Winant, nw@exegetic.net, 8/29/2006
         text = escapeSpecialCharsWithinTagAttributes(text);
+        StageTimer.lap(timer, RenderStage.ESCAPE_TAG_ATTRIBUTES, text);
 
         encodeAmpsAndAngles(text);
+        StageTimer.lap(timer, RenderStage.AMPS_AND_ANGLES, text);
         doItalicsAndBold(text);
+        StageTimer.lap(timer, RenderStage.ITALICS_AND_BOLD, text);
 
         // Manual line breaks
-        text.replaceAll(" {2,}\n", " <br />\n");
+        text.replaceAll(LINE_BREAK, " <br />\n");
+        StageTimer.lap(timer, RenderStage.LINE_BREAKS, text);
         return text;
     }
 
@@ -644,43 +1189,32 @@ public class MarkdownProcessor {
      *
      * Within tags -- meaning between < and > -- encode [\ ` * _] so they
      * don't conflict with their use in Markdown for code, italics and strong.
-     * We're replacing each such character with its corresponding random string
-     * value; this is likely overkill, but it should prevent us from colliding
-     * with the escape values by accident.
+     * Each such character is replaced by {@link Escaper#TAG} with its fixed
+     * noncharacter placeholder from {@link CharacterPlaceholders}, which can't
+     * collide with anything in the input.
      *
      * @param text
      * @return
      */
     private TextEditor escapeSpecialCharsWithinTagAttributes(TextEditor text) {
-        Collection<HTMLToken> tokens = text.tokenizeHTML();
-        TextEditor newText = new TextEditor("");
-
-        for (HTMLToken token : tokens) {
-            String value = token.getText();
-            if (token.isTag()) {
-                value = value.replaceAll("\\\\", CHAR_PROTECTOR.encode("\\"));
-                value = value.replaceAll("`", CHAR_PROTECTOR.encode("`"));
-                value = value.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                value = value.replaceAll("_", CHAR_PROTECTOR.encode("_"));
-            }
-            newText.append(value);
-        }
-
-        return newText;
+        return text.escapeTags(Escaper.TAG);
     }
 
-    private void doImages(TextEditor text) {
+    private static final Pattern IMAGE_LINK = Pattern.compile("(" +
+            "[!]\\[(.*?)\\]" + // alt text = $2
+            "[ ]?(?:\\n[ ]*)?" +
+            "\\[(.*?)\\]" + // ID = $3
+            ")");
+    private static final Pattern INLINE_IMAGE_WITH_TITLE = Pattern.compile("!\\[(.*)\\]\\((.*) \"(.*)\"\\)");
+    private static final Pattern INLINE_IMAGE = Pattern.compile("!\\[(.*)\\]\\((.*)\\)");
+
+    private void doImages(TextEditor text, final RenderContext context) {
         // Inline image syntax
-    	text.replaceAll("!\\[(.*)\\]\\((.*) \"(.*)\"\\)", "<img src=\"$2\" alt=\"$1\" title=\"$3\" />");
-    	text.replaceAll("!\\[(.*)\\]\\((.*)\\)", "<img src=\"$2\" alt=\"$1\" />");
+    	text.replaceAll(INLINE_IMAGE_WITH_TITLE, "<img src=\"$2\" alt=\"$1\" title=\"$3\" />");
+    	text.replaceAll(INLINE_IMAGE, "<img src=\"$2\" alt=\"$1\" />");
 
         // Reference-style image syntax
-    	Pattern imageLink = Pattern.compile("(" +
-            	"[!]\\[(.*?)\\]" + // alt text = $2
-            	"[ ]?(?:\\n[ ]*)?" +
-            	"\\[(.*?)\\]" + // ID = $3
-            	")");
-    	text.replaceAll(imageLink, new Replacement() {
+    	text.replaceAll(IMAGE_LINK, new Replacement() {
         	public String replacement(Matcher m) {
             	String replacementText;
             	String wholeMatch = m.group(1);
@@ -691,16 +1225,14 @@ public class MarkdownProcessor {
             	}
 
             	// imageDefinition is the same as linkDefinition
-            	LinkDefinition defn = linkDefinitions.get(id);
+            	LinkDefinition defn = context.linkDefinition(id);
             	if (defn != null) {
                 	String url = defn.getUrl();
-                	url = url.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                	url = url.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                	url = Escaper.EMPHASIS.escape(url);
                 	String title = defn.getTitle();
                 	String titleTag = "";
                 	if (title != null && !title.equals("")) {
-                    	title = title.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                    	title = title.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                    	title = Escaper.EMPHASIS.escape(title);
                     	titleTag = " alt=\"" + altText + "\" title=\"" + title + "\"";
                 	}
                 	replacementText = "<img src=\"" + url + "\"" + titleTag + "/>";
@@ -712,14 +1244,34 @@ public class MarkdownProcessor {
     	});
 	}
 
-    private TextEditor doAnchors(TextEditor markup) {
+    private static final Pattern INTERNAL_LINK = Pattern.compile("(" +
+            "\\[(.*?)\\]" + // Link text = $2
+            "[ ]?(?:\\n[ ]*)?" +
+            "\\[(.*?)\\]" + // ID = $3
+            ")");
+    private static final Pattern INLINE_LINK = Pattern.compile("(" + // Whole match = $1
+            "\\[(.*?)\\]" + // Link text = $2
+            "\\(" +
+            "[ \\t]*" +
+            "<?(.*?)>?" + // href = $3
+            "[ \\t]*" +
+            "(" +
+            "(['\"])" + // Quote character = $5
+            "(.*?)" + // Title = $6
+            "\\5" +
+            ")?" +
+            "\\)" +
+            ")", Pattern.DOTALL);
+    private static final Pattern REFERENCE_SHORTCUT = Pattern.compile("(" + // wrap whole match in $1
+            "\\[" +
+            "([^\\[\\]]+)" + // link text = $2; can't contain '[' or ']'
+            "\\]" +
+            ")", Pattern.DOTALL);
+    static final Pattern EMBEDDED_NEWLINE = Pattern.compile("[ ]?\\n");
+
+    private TextEditor doAnchors(TextEditor markup, final RenderContext context) {
         // Internal references: [link text] [id]
-        Pattern internalLink = Pattern.compile("(" +
-                "\\[(.*?)\\]" + // Link text = $2
-                "[ ]?(?:\\n[ ]*)?" +
-                "\\[(.*?)\\]" + // ID = $3
-                ")");
-        markup.replaceAll(internalLink, new Replacement() {
+        markup.replaceAll(INTERNAL_LINK, new Replacement() {
             public String replacement(Matcher m) {
                 String replacementText;
                 String wholeMatch = m.group(1);
@@ -729,18 +1281,16 @@ public class MarkdownProcessor {
                     id = linkText.toLowerCase();
                 }
 
-                LinkDefinition defn = linkDefinitions.get(id);
+                LinkDefinition defn = context.linkDefinition(id);
                 if (defn != null) {
                     String url = defn.getUrl();
                     // protect emphasis (* and _) within urls
-                    url = url.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                    url = url.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                    url = Escaper.EMPHASIS.escape(url);
                     String title = defn.getTitle();
                     String titleTag = "";
                     if (title != null && !title.equals("")) {
                         // protect emphasis (* and _) within urls
-                        title = title.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                        title = title.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                        title = Escaper.EMPHASIS.escape(title);
                         titleTag = " title=\"" + title + "\"";
                     }
                     replacementText = "<a href=\"" + url + "\"" + titleTag + ">" + linkText + "</a>";
@@ -752,34 +1302,19 @@ public class MarkdownProcessor {
         });
 
         // Inline-style links: [link text](url "optional title")
-        Pattern inlineLink = Pattern.compile("(" + // Whole match = $1
-                "\\[(.*?)\\]" + // Link text = $2
-                "\\(" +
-                "[ \\t]*" +
-                "<?(.*?)>?" + // href = $3
-                "[ \\t]*" +
-                "(" +
-                "(['\"])" + // Quote character = $5
-                "(.*?)" + // Title = $6
-                "\\5" +
-                ")?" +
-                "\\)" +
-                ")", Pattern.DOTALL);
-        markup.replaceAll(inlineLink, new Replacement() {
+        markup.replaceAll(INLINE_LINK, new Replacement() {
             public String replacement(Matcher m) {
                 String linkText = m.group(2);
                 String url = m.group(3);
                 String title = m.group(6);
                 // protect emphasis (* and _) within urls
-                url = url.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                url = url.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                url = Escaper.EMPHASIS.escape(url);
                 StringBuilder result = new StringBuilder();
                 result.append("<a href=\"").append(url).append("\"");
                 if (title != null) {
                     // protect emphasis (* and _) within urls
-                    title = title.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                    title = title.replaceAll("_", CHAR_PROTECTOR.encode("_"));
-                    title = replaceAll(title, "\"", "&quot;");
+                    title = Escaper.EMPHASIS.escape(title);
+                    title = QUOTE.matcher(title).replaceAll("&quot;");
                     result.append(" title=\"");
                     result.append(title);
                     result.append("\"");
@@ -793,31 +1328,24 @@ public class MarkdownProcessor {
         // Last, handle reference-style shortcuts: [link text]
         // These must come last in case you've also got [link test][1]
         // or [link test](/foo)
-        Pattern referenceShortcut = Pattern.compile("(" + // wrap whole match in $1
-                                                        "\\[" +
-                                                        "([^\\[\\]]+)" + // link text = $2; can't contain '[' or ']'
-                                                        "\\]" +
-                                                    ")", Pattern.DOTALL);
-        markup.replaceAll(referenceShortcut, new Replacement() {
+        markup.replaceAll(REFERENCE_SHORTCUT, new Replacement() {
             public String replacement(Matcher m) {
                 String replacementText;
                 String wholeMatch = m.group(1);
                 String linkText = m.group(2);
                 String id = m.group(2).toLowerCase(); // link id should be lowercase
-                id = id.replaceAll("[ ]?\\n", " "); // change embedded newlines into spaces
+                id = EMBEDDED_NEWLINE.matcher(id).replaceAll(" "); // change embedded newlines into spaces
 
-                LinkDefinition defn = linkDefinitions.get(id.toLowerCase());
+                LinkDefinition defn = context.shortcutDefinition(id.toLowerCase());
                 if (defn != null) {
                     String url = defn.getUrl();
                     // protect emphasis (* and _) within urls
-                    url = url.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                    url = url.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                    url = Escaper.EMPHASIS.escape(url);
                     String title = defn.getTitle();
                     String titleTag = "";
                     if (title != null && !title.equals("")) {
                         // protect emphasis (* and _) within urls
-                        title = title.replaceAll("\\*", CHAR_PROTECTOR.encode("*"));
-                        title = title.replaceAll("_", CHAR_PROTECTOR.encode("_"));
+                        title = Escaper.EMPHASIS.escape(title);
                         titleTag = " title=\"" + title + "\"";
                     }
                     replacementText = "<a href=\"" + url + "\"" + titleTag + ">" + linkText + "</a>";
@@ -832,25 +1360,27 @@ public class MarkdownProcessor {
     }
 
     private TextEditor doItalicsAndBold(TextEditor markup) {
-        markup.replaceAll("(\\*\\*|__)(?=\\S)(.+?[*_]*)(?<=\\S)\\1", "<strong>$2</strong>");
-        markup.replaceAll("(\\*|_)(?=\\S)(.+?)(?<=\\S)\\1", "<em>$2</em>");
-        return markup;
+        // (\*\*|__)(?=\S)(.+?[*_]*)(?<=\S)\1 becomes <strong>$2</strong>, then
+        // (\*|_)(?=\S)(.+?)(?<=\S)\1 becomes <em>$2</em>
+        return markup.emphasize();
     }
 
     private TextEditor encodeAmpsAndAngles(TextEditor markup) {
         // Ampersand-encoding based entirely on Nat Irons's Amputator MT plugin:
         // http://bumppo.net/projects/amputator/
-        markup.replaceAll("&(?!#?[xX]?(?:[0-9a-fA-F]+|\\w+);)", "&amp;");
-        markup.replaceAll("<(?![a-zA-Z/?\\$!])", "&lt;");
-        return markup;
+        return markup.escape(Escaper.AMPS_AND_ANGLES);
     }
 
+    private static final Pattern CODE_SPAN = Pattern.compile("(?<!\\\\)(`+)(.+?)(?<!`)\\1(?!`)");
+    private static final Pattern LEADING_SPACES = Pattern.compile("^[ \\t]+", Pattern.MULTILINE);
+    private static final Pattern TRAILING_SPACES = Pattern.compile("[ \\t]+$", Pattern.MULTILINE);
+
     private TextEditor doCodeSpans(TextEditor markup) {
-            return markup.replaceAll(Pattern.compile("(?<!\\\\)(`+)(.+?)(?<!`)\\1(?!`)"), new Replacement() {
+            return markup.replaceAll(CODE_SPAN, new Replacement() {
                     public String replacement(Matcher m) {
                         String code = m.group(2);
                         TextEditor subEditor = new TextEditor(code);
-                        subEditor.deleteAll("^[ \\t]+").deleteAll("[ \\t]+$");
+                        subEditor.deleteAll(LEADING_SPACES).deleteAll(TRAILING_SPACES);
                         encodeCode(subEditor);
                         return "<code>" + subEditor.toString() + "</code>";
                     }
@@ -858,13 +1388,9 @@ public class MarkdownProcessor {
     }
 
 
-    private String deleteAll(String text, String regex) {
-        return replaceAll(text, regex, "");
-    }
-
-    private String replaceAll(String text, String regex, String replacement) {
+    private String deleteAll(String text, Pattern pattern) {
         TextEditor ed = new TextEditor(text);
-        ed.replaceAll(regex, replacement);
+        ed.deleteAll(pattern);
         return ed.toString();
     }
 
@@ -880,17 +1406,11 @@ public class MarkdownProcessor {
     }
 
     public static void main(String[] args) {
-        StringBuilder buf = new StringBuilder();
-        char[] cbuf = new char[1024];
-        java.io.Reader in = new java.io.InputStreamReader(System.in);
+        Reader in = new java.io.InputStreamReader(System.in);
         try {
-            int charsRead = in.read(cbuf);
-            while (charsRead >= 0) {
-                buf.append(cbuf, 0, charsRead);
-                charsRead = in.read(cbuf);
-            }
-            System.out.println(new MarkdownProcessor().markdown(buf.toString()));
-        } catch (java.io.IOException e) {
+            new MarkdownProcessor().markdown(in, System.out);
+            System.out.println();
+        } catch (IOException e) {
             System.err.println("Error reading input: " + e.getMessage());
             System.exit(1);
         }
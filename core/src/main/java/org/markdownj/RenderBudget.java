@@ -0,0 +1,169 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The limits on how long one render may take, and on how many characters its
+ * regular expressions may look at, set with {@link MarkdownProcessor#setTimeout}
+ * and {@link MarkdownProcessor#setMaxInspections(long)}.
+ * <p>
+ * A regular expression can't be interrupted, but it reads the text through a
+ * CharSequence, so the text is handed to it wrapped in one which counts the
+ * characters read and, every so often, checks the count and the clock.  Past
+ * either limit it throws a {@link RenderLimitException}, which unwinds the
+ * render from wherever it has got to.
+ * <p>
+ * The budget for the render in progress is kept for the thread doing it, so that
+ * every {@link TextEditor} uses it without having to be handed it; a render which
+ * is split across threads takes its budget with it.
+ */
+final class RenderBudget {
+    private static final ThreadLocal<RenderBudget> CURRENT = new ThreadLocal<RenderBudget>();
+
+    // How many characters are paid for at a time.
+    private static final int BATCH = 1024;
+
+    private final long timeoutNanos;
+    private final long deadline;
+    private final long maxInspections;
+    private final AtomicLong inspections = new AtomicLong();
+
+    private RenderBudget(long timeoutNanos, long maxInspections) {
+        this.timeoutNanos = timeoutNanos;
+        this.deadline = System.nanoTime() + timeoutNanos;
+        this.maxInspections = maxInspections;
+    }
+
+    /**
+     * Start the clock on a render.
+     *
+     * @param timeoutNanos   the time it may take, or 0 for no limit.
+     * @param maxInspections the characters it may read, or 0 for no limit.
+     * @return the budget, or <code>null</code> if there are no limits.
+     */
+    static RenderBudget start(long timeoutNanos, long maxInspections) {
+        if (timeoutNanos <= 0 && maxInspections <= 0) {
+            return null;
+        }
+        return new RenderBudget(timeoutNanos, maxInspections);
+    }
+
+    /**
+     * @return the budget of the render running on this thread, or <code>null</code>.
+     */
+    static RenderBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Make <code>budget</code> the one for this thread.
+     *
+     * @return the budget it replaces, to be given to {@link #exit(RenderBudget)}.
+     */
+    static RenderBudget enter(RenderBudget budget) {
+        RenderBudget previous = CURRENT.get();
+        CURRENT.set(budget);
+        return previous;
+    }
+
+    static void exit(RenderBudget previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return <code>text</code>, wrapped so that reading it counts against the
+     * budget of the render running on this thread, if there is one.
+     */
+    static CharSequence guard(CharSequence text) {
+        RenderBudget budget = CURRENT.get();
+        return budget == null ? text : budget.new Guarded(text);
+    }
+
+    private void spend(int characters) {
+        long spent = inspections.addAndGet(characters);
+        if (maxInspections > 0 && spent > maxInspections) {
+            throw new RenderLimitException("Render read more than " + maxInspections + " characters");
+        }
+        if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+            throw new RenderLimitException("Render took longer than " + timeoutNanos / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * Pays for the characters read in advance, a batch at a time.  A batch is no
+     * bigger than the text, so the many short passes over a paragraph are counted
+     * about as accurately as one long pass over the document.
+     */
+    private final class Guarded implements CharSequence {
+        private final CharSequence text;
+        private final int batch;
+        private int paid;
+
+        Guarded(CharSequence text) {
+            this.text = text;
+            this.batch = Math.max(1, Math.min(BATCH, text.length()));
+        }
+
+        public char charAt(int index) {
+            if (paid == 0) {
+                spend(batch);
+                paid = batch;
+            }
+            paid--;
+            return text.charAt(index);
+        }
+
+        public int length() {
+            return text.length();
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
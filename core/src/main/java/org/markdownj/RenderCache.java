@@ -0,0 +1,364 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of rendered HTML, which a {@link MarkdownProcessor} consults before
+ * converting a document, or, as a fragment cache, before rendering a paragraph.
+ * Each document or paragraph is looked up by the SHA-256 hash of its text together
+ * with the settings of the processor rendering it, so one cache can be shared by
+ * differently configured processors.  Only the hash and the HTML are kept, not the
+ * Markdown itself; a paragraph also keeps the link definitions it used, and is only
+ * reused while they stay the same.
+ * <p>
+ * The cache is bounded both by the number of documents and by an estimate of the
+ * memory their HTML takes up (two bytes a character, plus the hash).  It is split
+ * into segments, each with its own lock and its own share of the bounds, and each
+ * segment throws out its least recently used documents once it is full; so
+ * threads only contend when they use the same segment, and eviction is close to,
+ * but not exactly, least recently used across the whole cache.
+ * <p>
+ * Usage:
+ * <pre><code>
+ *     RenderCache cache = new RenderCache(10000, 64L * 1024 * 1024);
+ *     MarkdownProcessor markdown = new MarkdownProcessor();
+ *     markdown.setCache(cache);
+ * </code></pre>
+ */
+public final class RenderCache {
+    private static final int MAX_SEGMENTS = 16;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries the most documents to keep.
+     * @param maxBytes   roughly the most memory to use, in bytes.
+     */
+    public RenderCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("cache bounds must be positive");
+        }
+        int count = 1;
+        while (count * 2 <= Math.min(MAX_SEGMENTS, maxEntries)) {
+            count *= 2;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0),
+                    maxBytes / count + (i < maxBytes % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return the HTML for the document, or <code>null</code> if it isn't cached.
+     */
+    String get(Key key) {
+        Object html = segmentFor(key).get(key);
+        count(html != null);
+        return (String) html;
+    }
+
+    void put(Key key, String html) {
+        segmentFor(key).put(key, html, 2L * html.length());
+    }
+
+    /**
+     * @return the HTML for a paragraph, or <code>null</code> if it isn't cached or
+     * if any link it looked up has been defined differently since.
+     */
+    String getFragment(Key key, RenderContext context) {
+        Fragment fragment = (Fragment) segmentFor(key).get(key);
+        boolean hit = fragment != null && fragment.isCurrent(context);
+        count(hit);
+        return hit ? fragment.html : null;
+    }
+
+    /**
+     * Keep the HTML for a paragraph, along with the link definitions it was
+     * rendered with, and whether a reference in it found no definition.
+     */
+    void putFragment(Key key, String html, Map<String, LinkDefinition> lookups, boolean missingLinkDefinition) {
+        Fragment fragment = new Fragment(html, lookups, missingLinkDefinition);
+        segmentFor(key).put(key, fragment, fragment.weight());
+    }
+
+    private void count(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        return segments[key.hashCode() >>> 28 & (segments.length - 1)];
+    }
+
+    /**
+     * @return the key for <code>text</code> rendered with the given settings.
+     */
+    static Key key(String settings, String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[2048];
+        update(digest, settings, buffer);
+        digest.update((byte) 0);
+        digest.update((byte) 0);
+        update(digest, text, buffer);
+        return new Key(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String text, byte[] buffer) {
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            buffer[n++] = (byte) (c >> 8);
+            buffer[n++] = (byte) c;
+            if (n == buffer.length) {
+                digest.update(buffer, 0, n);
+                n = 0;
+            }
+        }
+        digest.update(buffer, 0, n);
+    }
+
+    /**
+     * @return how many lookups found the document already rendered.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many lookups had to render the document.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the proportion of lookups which were hits, or 0 if there have been none.
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * @return how many documents have been thrown out to make room for others.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of documents cached.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated memory taken by the cached documents, in bytes.
+     */
+    public long getByteSize() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Throw out every document, leaving the statistics as they are.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RenderCache(size=" + size() + ", bytes=" + getByteSize() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + ")";
+    }
+
+    static final class Key {
+        private final byte[] hash;
+        private final int hashCode;
+
+        Key(byte[] hash) {
+            this.hash = hash;
+            this.hashCode = (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | hash[3] & 0xff;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(hash, ((Key) other).hash);
+        }
+    }
+
+    /**
+     * The HTML for a paragraph, and the links it looked up: a definition of
+     * <code>null</code> means the link wasn't defined.
+     */
+    private static final class Fragment {
+        final String html;
+        private final String[] ids;
+        private final LinkDefinition[] definitions;
+        private final boolean missingLinkDefinition;
+
+        Fragment(String html, Map<String, LinkDefinition> lookups, boolean missingLinkDefinition) {
+            this.html = html;
+            this.missingLinkDefinition = missingLinkDefinition;
+            ids = lookups.keySet().toArray(new String[lookups.size()]);
+            definitions = new LinkDefinition[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                definitions[i] = lookups.get(ids[i]);
+            }
+        }
+
+        /**
+         * Look the links up again in <code>context</code>, as rendering the paragraph would.
+         */
+        boolean isCurrent(RenderContext context) {
+            boolean current = true;
+            for (int i = 0; i < ids.length; i++) {
+                if (!LinkDefinition.same(context.shortcutDefinition(ids[i]), definitions[i])) {
+                    current = false;
+                }
+            }
+            if (current && missingLinkDefinition) {
+                context.missingLinkDefinition = true;
+            }
+            return current;
+        }
+
+        long weight() {
+            long weight = 2L * html.length();
+            for (String id : ids) {
+                weight += 2L * id.length() + ENTRY_OVERHEAD;
+            }
+            return weight;
+        }
+    }
+
+    private static final class Weighed {
+        final Object value;
+        final long weight;
+
+        Weighed(Object value, long weight) {
+            this.value = value;
+            this.weight = ENTRY_OVERHEAD + weight;
+        }
+    }
+
+    private final class Segment {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final LinkedHashMap<Key, Weighed> entries = new LinkedHashMap<Key, Weighed>(16, 0.75f, true);
+        private long bytes;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Object get(Key key) {
+            Weighed entry = entries.get(key);
+            return entry == null ? null : entry.value;
+        }
+
+        synchronized void put(Key key, Object value, long weight) {
+            Weighed entry = new Weighed(value, weight);
+            if (entry.weight > maxBytes) {
+                return;
+            }
+            Weighed old = entries.put(key, entry);
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            bytes += entry.weight;
+            Iterator<Weighed> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                bytes -= eldest.next().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+}
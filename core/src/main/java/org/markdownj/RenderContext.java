@@ -0,0 +1,163 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * The state built up while one document is converted: its link definitions,
+ * how deeply lists have been nested, the HTML blocks it has set aside,
+ * and the random numbers used to obfuscate e-mail addresses.
+ * <p>
+ * A new context is made for each call to {@link MarkdownProcessor#markdown(String)},
+ * which leaves the processor itself free of per-document state.  The protector
+ * and random number generator are only made if the document needs them.
+ */
+final class RenderContext {
+    final Map<String, LinkDefinition> linkDefinitions;
+    /** The deepest lists have been nested, and how many paragraphs there have been, for a RenderListener. */
+    int maxListLevel;
+    int paragraphs;
+    /** Whether a reference to a link, <code>[text][id]</code> or <code>[id][]</code>, has found no definition. */
+    boolean missingLinkDefinition;
+    /** The link definitions looked up so far, if they are being recorded, or null. */
+    Map<String, LinkDefinition> lookups;
+    private CharacterProtector htmlProtector;
+    private Random random;
+
+    RenderContext() {
+        this(new TreeMap<String, LinkDefinition>(), null, null);
+    }
+
+    private RenderContext(Map<String, LinkDefinition> linkDefinitions, CharacterProtector htmlProtector, Random random) {
+        this.linkDefinitions = linkDefinitions;
+        this.htmlProtector = htmlProtector;
+        this.random = random;
+    }
+
+    /**
+     * Make a context for rendering part of the same document on another thread.
+     * It shares the link definitions, protected HTML and random numbers, which
+     * are safe to share once the link definitions have all been read, but has
+     * its own counts, missing link flag and record of lookups.
+     */
+    RenderContext fork() {
+        RenderContext fork = new RenderContext(linkDefinitions, htmlProtector(), random());
+        if (lookups != null) {
+            fork.lookups = new HashMap<String, LinkDefinition>();
+        }
+        return fork;
+    }
+
+    /**
+     * Bring what a forked context found back into this one.
+     */
+    void join(RenderContext fork) {
+        if (fork.missingLinkDefinition) {
+            missingLinkDefinition = true;
+        }
+        maxListLevel = Math.max(maxListLevel, fork.maxListLevel);
+        paragraphs += fork.paragraphs;
+        if (lookups != null) {
+            lookups.putAll(fork.lookups);
+        }
+    }
+
+    /**
+     * Make a context for rendering text which was prepared in this one, so
+     * with its protected HTML, but using another set of link definitions.
+     */
+    RenderContext withLinkDefinitions(Map<String, LinkDefinition> linkDefinitions) {
+        return new RenderContext(linkDefinitions, htmlProtector, random);
+    }
+
+    /**
+     * Look up the link definition for a reference, noting whether any lookup has
+     * failed, since a definition further on in the document may yet supply it.
+     */
+    LinkDefinition linkDefinition(String id) {
+        LinkDefinition definition = shortcutDefinition(id);
+        if (definition == null) {
+            missingLinkDefinition = true;
+        }
+        return definition;
+    }
+
+    /**
+     * Look up the link definition for a shortcut, <code>[id]</code>.  Square
+     * brackets are mostly just text, so a failed lookup isn't noted.
+     */
+    LinkDefinition shortcutDefinition(String id) {
+        LinkDefinition definition = linkDefinitions.get(id);
+        if (lookups != null) {
+            lookups.put(id, definition);
+        }
+        return definition;
+    }
+
+    CharacterProtector htmlProtector() {
+        if (htmlProtector == null) {
+            htmlProtector = new CharacterProtector();
+        }
+        return htmlProtector;
+    }
+
+    /**
+     * @return the HTML block which the text stands in for, or <code>null</code> if it
+     * isn't one protected during this render.
+     */
+    String decodeHtml(String text) {
+        return htmlProtector == null ? null : htmlProtector.decode(text);
+    }
+
+    /**
+     * @return the number of HTML blocks protected during this render.
+     */
+    int htmlBlockCount() {
+        return htmlProtector == null ? 0 : htmlProtector.size();
+    }
+
+    Random random() {
+        if (random == null) {
+            random = new Random();
+        }
+        return random;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Told how long each stage of a conversion takes, for finding out where the
+ * time goes when a document is slow to render.  See
+ * {@link MarkdownProcessor#setRenderListener(RenderListener)}.
+ * <p>
+ * A listener is called on the thread doing the work, in the middle of the
+ * conversion, so it should be quick.  A processor shared by several threads, or
+ * one with an executor, calls its listener from several threads at once.
+ */
+public interface RenderListener {
+
+    /**
+     * A stage has finished.
+     *
+     * @param stage  which stage it was.
+     * @param length the length of the text the stage was given.
+     * @param nanos  how long it took, in nanoseconds.
+     */
+    void stageFinished(RenderStage stage, int length, long nanos);
+
+    /**
+     * {@link MarkdownProcessor#markdown(String)} is about to convert a document,
+     * which wasn't in its cache, or {@link MarkdownProcessor#markdown(java.io.Reader, Appendable)}
+     * is about to convert a stream.  The stages of the conversion follow, and then
+     * {@link #documentFinished}, on the same thread.
+     *
+     * @param length the length of the document, or -1 for a stream, whose length
+     *               isn't known until it has been read.
+     */
+    void documentStarted(int length);
+
+    /**
+     * A document has been converted.
+     *
+     * @param length     the length of the document, up to
+     *                   <code>Integer.MAX_VALUE</code> for a long stream.
+     * @param htmlLength the length of the HTML, likewise.
+     * @param paragraphs the number of paragraphs.
+     * @param listDepth  how deeply lists were nested, or 0 if there were none.
+     * @param htmlBlocks the number of blocks of HTML that were set aside, including
+     *                   those generated by earlier stages, such as headers and lists.
+     * @param nanos      how long the whole conversion took, in nanoseconds.
+     */
+    void documentFinished(int length, int htmlLength, int paragraphs, int listDepth, int htmlBlocks, long nanos);
+}
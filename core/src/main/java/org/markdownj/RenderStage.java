@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * The stages a document goes through on its way to HTML, as reported to a
+ * {@link RenderListener}.  Some stages run others: lists and block quotes run
+ * the block stages again on their contents, and paragraphs run the span stages,
+ * so their times include those of the stages inside them.
+ */
+public enum RenderStage {
+    /** Line endings, blank lines and tabs are made uniform. */
+    NORMALIZE,
+    /** Blocks of HTML are set aside, so Markdown leaves them alone. */
+    HASH_HTML_BLOCKS,
+    /** Link definitions are read and taken out of the text. */
+    STRIP_LINK_DEFINITIONS,
+    /** The line parser splits the document into top-level blocks. */
+    BLOCK_SCAN,
+    HEADERS,
+    HORIZONTAL_RULES,
+    LISTS,
+    CODE_BLOCKS,
+    BLOCK_QUOTES,
+    PARAGRAPHS,
+    /** Characters inside HTML tags are protected from the span stages. */
+    ESCAPE_TAG_ATTRIBUTES,
+    CODE_SPANS,
+    BACKSLASH_ESCAPES,
+    IMAGES,
+    ANCHORS,
+    AUTO_LINKS,
+    AMPS_AND_ANGLES,
+    ITALICS_AND_BOLD,
+    LINE_BREAKS,
+    /** The inline lexer, which does the work of all the span stages in one. */
+    INLINE_LEXER,
+    /** Protected characters are put back. */
+    UNESCAPE_SPECIAL_CHARS
+}
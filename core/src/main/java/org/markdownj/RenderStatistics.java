@@ -0,0 +1,244 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running totals of what a processor has done: how many documents it has
+ * converted and how long they took, how long each stage took in all, how many
+ * blocks of HTML were set aside, and how well its caches are doing.  Usage:
+ * <pre><code>
+ *     RenderStatistics statistics = new RenderStatistics(processor);
+ *     processor.setRenderListener(statistics);
+ *     ManagementFactory.getPlatformMBeanServer().registerMBean(statistics,
+ *             new ObjectName("org.markdownj:type=RenderStatistics"));
+ * </code></pre>
+ * It is safe for use by any number of threads.
+ */
+public final class RenderStatistics implements RenderListener, RenderStatisticsMBean {
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private static final RenderStage[] STAGES = RenderStage.values();
+
+    private final MarkdownProcessor processor;
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong characters = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    private final AtomicLong htmlBlocks = new AtomicLong();
+    private final AtomicLong maxHtmlBlocks = new AtomicLong();
+    private final AtomicLongArray stageCounts = new AtomicLongArray(STAGES.length);
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES.length);
+
+    /**
+     * @param processor the processor whose caches are reported on.  It still has
+     *                  to be given this as its listener.
+     */
+    public RenderStatistics(MarkdownProcessor processor) {
+        this.processor = processor;
+    }
+
+    public void stageFinished(RenderStage stage, int length, long nanos) {
+        stageCounts.incrementAndGet(stage.ordinal());
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    public void documentStarted(int length) {
+    }
+
+    public void documentFinished(int length, int htmlLength, int paragraphs, int listDepth, int htmlBlocks, long nanos) {
+        documents.incrementAndGet();
+        characters.addAndGet(length);
+        this.nanos.addAndGet(nanos);
+        raise(maxNanos, nanos);
+        this.htmlBlocks.addAndGet(htmlBlocks);
+        raise(maxHtmlBlocks, htmlBlocks);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && nanos > BUCKET_BOUNDS_MILLIS[bucket] * 1000000) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    private static void raise(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    public long getCharacterCount() {
+        return characters.get();
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = documents.get();
+        return count == 0 ? 0 : nanos.get() / 1e6 / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    public long[] getLatencyBucketBoundsMillis() {
+        return BUCKET_BOUNDS_MILLIS.clone();
+    }
+
+    public long[] getLatencyHistogram() {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    public long getHtmlBlockCount() {
+        return htmlBlocks.get();
+    }
+
+    public long getMaxHtmlBlocks() {
+        return maxHtmlBlocks.get();
+    }
+
+    public String[] getStageNames() {
+        String[] names = new String[STAGES.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = STAGES[i].name();
+        }
+        return names;
+    }
+
+    public long[] getStageCounts() {
+        long[] counts = new long[STAGES.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = stageCounts.get(i);
+        }
+        return counts;
+    }
+
+    public double[] getStageMillis() {
+        double[] millis = new double[STAGES.length];
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = stageNanos.get(i) / 1e6;
+        }
+        return millis;
+    }
+
+    /**
+     * @return the number of times <code>stage</code> has run.
+     */
+    public long getStageCount(RenderStage stage) {
+        return stageCounts.get(stage.ordinal());
+    }
+
+    /**
+     * @return the time spent in <code>stage</code>, in nanoseconds.
+     */
+    public long getStageNanos(RenderStage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public long getCacheHitCount() {
+        RenderCache cache = processor.getCache();
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        RenderCache cache = processor.getCache();
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public long getCacheEvictionCount() {
+        RenderCache cache = processor.getCache();
+        return cache == null ? 0 : cache.getEvictionCount();
+    }
+
+    public int getCacheSize() {
+        RenderCache cache = processor.getCache();
+        return cache == null ? 0 : cache.size();
+    }
+
+    public long getFragmentCacheHitCount() {
+        RenderCache cache = processor.getFragmentCache();
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getFragmentCacheMissCount() {
+        RenderCache cache = processor.getFragmentCache();
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public long getFragmentCacheEvictionCount() {
+        RenderCache cache = processor.getFragmentCache();
+        return cache == null ? 0 : cache.getEvictionCount();
+    }
+
+    public int getFragmentCacheSize() {
+        RenderCache cache = processor.getFragmentCache();
+        return cache == null ? 0 : cache.size();
+    }
+
+    public void reset() {
+        documents.set(0);
+        characters.set(0);
+        nanos.set(0);
+        maxNanos.set(0);
+        htmlBlocks.set(0);
+        maxHtmlBlocks.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+        for (int i = 0; i < STAGES.length; i++) {
+            stageCounts.set(i, 0);
+            stageNanos.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RenderStatistics[documents=" + getDocumentCount()
+                + ", averageLatencyMillis=" + getAverageLatencyMillis()
+                + ", maxLatencyMillis=" + getMaxLatencyMillis() + "]";
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * The management interface of {@link RenderStatistics}.  Times are in
+ * milliseconds; the arrays of stage figures are in the order of
+ * {@link #getStageNames()}.
+ */
+public interface RenderStatisticsMBean {
+
+    long getDocumentCount();
+
+    long getCharacterCount();
+
+    double getAverageLatencyMillis();
+
+    double getMaxLatencyMillis();
+
+    /**
+     * @return the upper bound of each bucket of {@link #getLatencyHistogram()}.
+     */
+    long[] getLatencyBucketBoundsMillis();
+
+    /**
+     * @return how many documents took up to each bucket's bound, and then how many
+     * took longer than the last bound.
+     */
+    long[] getLatencyHistogram();
+
+    long getHtmlBlockCount();
+
+    long getMaxHtmlBlocks();
+
+    String[] getStageNames();
+
+    long[] getStageCounts();
+
+    double[] getStageMillis();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    long getCacheEvictionCount();
+
+    int getCacheSize();
+
+    long getFragmentCacheHitCount();
+
+    long getFragmentCacheMissCount();
+
+    long getFragmentCacheEvictionCount();
+
+    int getFragmentCacheSize();
+
+    /**
+     * Start counting again from zero.  The caches are left alone.
+     */
+    void reset();
+}
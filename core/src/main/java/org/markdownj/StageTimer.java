@@ -0,0 +1,82 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+/**
+ * Times one stage after another of a conversion for a {@link RenderListener}.
+ * When there's no listener there's no timer either, and {@link #lap} does nothing,
+ * so a processor without a listener only pays for a null check per stage.
+ */
+final class StageTimer {
+    private final RenderListener listener;
+    private int length;
+    private long start;
+
+    private StageTimer(RenderListener listener, int length) {
+        this.listener = listener;
+        this.length = length;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * @return a timer for the stages run on <code>text</code>, or <code>null</code>
+     * if there's no listener.
+     */
+    static StageTimer start(RenderListener listener, TextEditor text) {
+        return listener == null ? null : new StageTimer(listener, text.length());
+    }
+
+    /**
+     * @return a timer for the stages run on <code>text</code>, or <code>null</code>
+     * if there's no listener.
+     */
+    static StageTimer start(RenderListener listener, CharSequence text) {
+        return listener == null ? null : new StageTimer(listener, text.length());
+    }
+
+    /**
+     * Report the stage which has just finished, and start timing the next one,
+     * which is given <code>text</code>.
+     */
+    static void lap(StageTimer timer, RenderStage stage, TextEditor text) {
+        if (timer != null) {
+            timer.listener.stageFinished(stage, timer.length, System.nanoTime() - timer.start);
+            timer.length = text.length();
+            timer.start = System.nanoTime();
+        }
+    }
+}
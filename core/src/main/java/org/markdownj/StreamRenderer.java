@@ -0,0 +1,177 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a stream of Markdown a block at a time, for
+ * {@link MarkdownProcessor#markdown(Reader, Appendable)}.
+ * <p>
+ * Most blocks go straight through: their HTML blocks are set aside, their link
+ * definitions stripped out, and their HTML written.  Two things hold blocks back.
+ * An HTML block may run on over several blocks, which are kept by a
+ * {@link HtmlBlockJoiner} until they are joined together.  And a block with a
+ * reference to a link that hasn't been defined yet waits, along with everything
+ * after it, for the end of the input, where the definition is most likely to be.
+ * Either way, once {@link #MAX_WAITING} characters are held back they are written
+ * as they are.
+ */
+final class StreamRenderer {
+    private final MarkdownProcessor processor;
+    private final Appendable out;
+    private final RenderContext context = new RenderContext();
+    private final HtmlBlockJoiner joiner = new HtmlBlockJoiner();
+
+    /**
+     * How many characters of blocks may wait for link definitions, or for the
+     * closing tag of an HTML block, before they are written anyway.
+     */
+    static final int MAX_WAITING = 1 << 20;
+
+    // Prepared blocks waiting for link definitions.
+    private final List<String> waiting = new ArrayList<String>();
+    private int waitingLength;
+    private boolean written;
+    private long length;
+    private long htmlLength;
+
+    public StreamRenderer(MarkdownProcessor processor, Appendable out) {
+        this.processor = processor;
+        this.out = out;
+    }
+
+    public void render(Reader in, int tabWidth) throws IOException {
+        LineReader reader = new LineReader(in, tabWidth);
+        StringBuilder lines = new StringBuilder();
+        BlockScanner blocks = new BlockScanner(lines);
+        blocks.setMaxHtmlBlock(MAX_WAITING);
+        boolean more = true;
+        while (more) {
+            more = reader.readLine(lines);
+            if (!more) {
+                // Make sure the text ends with a couple of newlines, as markdown(String) does.
+                lines.append("\n\n");
+            }
+            while (blocks.find(more)) {
+                if (joiner.add(lines.substring(blocks.start(), blocks.end()), blocks.htmlOpenings(), blocks.htmlClosings())
+                        || joiner.length() > MAX_WAITING) {
+                    release();
+                }
+            }
+            blocks.discard();
+        }
+        release();
+        writeWaiting();
+        out.append("\n");
+        length = reader.charactersRead();
+        htmlLength++;
+    }
+
+    /**
+     * @return how many characters of Markdown were read.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return how many characters of HTML have been written.
+     */
+    long htmlLength() {
+        return htmlLength;
+    }
+
+    /**
+     * @return the context the blocks were rendered in, which holds the statistics for
+     * a {@link RenderListener}.
+     */
+    RenderContext context() {
+        return context;
+    }
+
+    /**
+     * Render the blocks which can no longer be joined together, unless they have to
+     * wait for link definitions.
+     */
+    private void release() throws IOException {
+        for (String block : joiner.take()) {
+            String markup = processor.prepareBlock(block, context);
+            if (waiting.isEmpty()) {
+                // Render in a fork, so that a block which has to wait isn't counted twice.
+                RenderContext attempt = context.fork();
+                String html = processor.renderBlock(markup, attempt);
+                if (!attempt.missingLinkDefinition) {
+                    context.join(attempt);
+                    write(html);
+                    continue;
+                }
+            }
+            waiting.add(markup);
+            waitingLength += markup.length();
+            if (waitingLength > MAX_WAITING) {
+                writeWaiting();
+            }
+        }
+    }
+
+    /**
+     * Render the blocks waiting for link definitions with the definitions found so far.
+     */
+    private void writeWaiting() throws IOException {
+        for (String markup : waiting) {
+            write(processor.renderBlock(markup, context));
+        }
+        waiting.clear();
+        waitingLength = 0;
+    }
+
+    private void write(String html) throws IOException {
+        if (html.length() > 0) {
+            if (written) {
+                out.append("\n\n");
+                htmlLength += 2;
+            }
+            out.append(html);
+            htmlLength += html.length();
+            written = true;
+        }
+    }
+}
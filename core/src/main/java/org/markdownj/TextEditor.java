@@ -44,8 +44,13 @@ import java.util.regex.Pattern;
 
 /**
  * Mutable String with common operations used in Markdown processing.
+ * <p>
+ * Each replacement is written into a spare buffer from a {@link BufferPool},
+ * which then becomes the text, and the old text goes back to the pool.
  */
 public class TextEditor {
+    private static final Pattern LINE_START = Pattern.compile("^", Pattern.MULTILINE);
+
     private StringBuilder text;
 
     /**
@@ -55,7 +60,8 @@ public class TextEditor {
      * @param text
      */
     public TextEditor(CharSequence text) {
-        this.text = new StringBuilder(text);
+        this.text = BufferPool.borrow(text.length() + 16);
+        this.text.append(text);
     }
 
     /**
@@ -76,20 +82,83 @@ public class TextEditor {
      * @return
      */
     public TextEditor replaceAll(String regex, String replacement) {
+        return replaceAll(Pattern.compile(regex, Pattern.MULTILINE), replacement);
+    }
+
+    /**
+     * Same as {@link #replaceAll(String, String)}, with a pattern compiled ahead of time.
+     */
+    TextEditor replaceAll(Pattern pattern, String replacement) {
         if (text.length() > 0) {
-            final String r = replacement;
-            Pattern p = Pattern.compile(regex, Pattern.MULTILINE);
-            Matcher m = p.matcher(text);
-            StringBuffer sb = new StringBuffer();
-            while (m.find()) {
-                m.appendReplacement(sb, r);
+            Matcher m = pattern.matcher(RenderBudget.guard(text));
+            if (!m.find()) {
+                return this;
             }
-            m.appendTail(sb);
-            text = new StringBuilder(sb.toString());
+            boolean literal = replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0;
+            StringBuilder sb = BufferPool.borrow(text.length() + 16);
+            int lastIndex = 0;
+            do {
+                sb.append(text, lastIndex, m.start());
+                if (literal) {
+                    sb.append(replacement);
+                } else {
+                    appendReplacement(sb, m, replacement);
+                }
+                lastIndex = m.end();
+            } while (m.find());
+            sb.append(text, lastIndex, text.length());
+            swap(sb);
         }
         return this;
     }
 
+    /**
+     * Append <code>replacement</code> with each $1, $2 etc. replaced by the group
+     * it refers to, and each backslash-escaped character by itself, as
+     * {@link Matcher#appendReplacement(StringBuffer, String)} does.
+     */
+    private static void appendReplacement(StringBuilder sb, Matcher m, String replacement) {
+        int i = 0;
+        int length = replacement.length();
+        while (i < length) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == length) {
+                    throw new IllegalArgumentException("character to be escaped is missing");
+                }
+                sb.append(replacement.charAt(i++));
+            } else if (c == '$') {
+                if (i == length || !Character.isDigit(replacement.charAt(i))) {
+                    throw new IllegalArgumentException("Illegal group reference");
+                }
+                int group = replacement.charAt(i++) - '0';
+                // Take more digits only while they still make a group that exists.
+                while (i < length && Character.isDigit(replacement.charAt(i))) {
+                    int longer = group * 10 + replacement.charAt(i) - '0';
+                    if (longer > m.groupCount()) {
+                        break;
+                    }
+                    group = longer;
+                    i++;
+                }
+                if (m.start(group) >= 0) {
+                    sb.append(m.group(group));
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Take <code>replacement</code> as the text, and give the old text back to the pool.
+     */
+    private void swap(StringBuilder replacement) {
+        StringBuilder old = text;
+        text = replacement;
+        BufferPool.giveBack(old);
+    }
+
     /**
      * Same as replaceAll(String, String), but does not interpret
      * $1, $2 etc. in the replacement string.
@@ -115,16 +184,35 @@ public class TextEditor {
      * @return
      */
     public TextEditor replaceAll(Pattern pattern, Replacement replacement) {
-        Matcher m = pattern.matcher(text);
+        Matcher m = pattern.matcher(RenderBudget.guard(text));
+        if (!m.find()) {
+            return this;
+        }
+        StringBuilder sb = BufferPool.borrow(text.length() + 16);
         int lastIndex = 0;
-        StringBuilder sb = new StringBuilder();
-        while (m.find()) {
-            sb.append(text.subSequence(lastIndex, m.start()));
+        do {
+            sb.append(text, lastIndex, m.start());
             sb.append(replacement.replacement(m));
             lastIndex = m.end();
+        } while (m.find());
+        sb.append(text, lastIndex, text.length());
+        swap(sb);
+        return this;
+    }
+
+    /**
+     * Escape the characters which <code>escaper</code> escapes, in one pass.
+     */
+    TextEditor escape(Escaper escaper) {
+        int length = text.length();
+        int first = escaper.indexOfSpecial(text, 0, length);
+        if (first == length) {
+            return this;
         }
-        sb.append(text.subSequence(lastIndex, text.length()));
-        text = sb;
+        StringBuilder sb = BufferPool.borrow(length + length / 8 + 16);
+        sb.append(text, 0, first);
+        escaper.escape(text, first, length, sb);
+        swap(sb);
         return this;
     }
 
@@ -140,6 +228,13 @@ public class TextEditor {
         return replaceAll(pattern, "");
     }
 
+    /**
+     * Same as {@link #deleteAll(String)}, with a pattern compiled ahead of time.
+     */
+    TextEditor deleteAll(Pattern pattern) {
+        return replaceAll(pattern, "");
+    }
+
     /**
      * Convert tabs to spaces given the default tab width of 4 spaces.
      * @return
@@ -154,19 +249,33 @@ public class TextEditor {
      * @param tabWidth  Number of spaces per tab.
      * @return
      */
-    public TextEditor detabify(final int tabWidth) {
-        replaceAll(Pattern.compile("(.*?)\\t"), new Replacement() {
-            public String replacement(Matcher m) {
-                String lineSoFar = m.group(1);
-                int width = lineSoFar.length();
-                StringBuilder replacement = new StringBuilder(lineSoFar);
+    public TextEditor detabify(int tabWidth) {
+        int length = text.length();
+        int tab = 0;
+        while (tab < length && text.charAt(tab) != '\t') {
+            tab++;
+        }
+        if (tab == length) {
+            return this;
+        }
+        StringBuilder sb = BufferPool.borrow(length + 16);
+        int column = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\t') {
                 do {
-                    replacement.append(' ');
-                    ++width;
-                } while (width % tabWidth != 0);
-                return replacement.toString();
+                    sb.append(' ');
+                    column++;
+                } while (column % tabWidth != 0);
+            } else {
+                sb.append(c);
+                // Tabs line up with the start of the line, wherever a regular
+                // expression would take a line to start.
+                boolean newLine = c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+                column = newLine ? 0 : column + 1;
             }
-        });
+        }
+        swap(sb);
         return this;
     }
 
@@ -176,7 +285,51 @@ public class TextEditor {
      * @return
      */
     public TextEditor outdent(int spaces) {
-        return deleteAll("^(\\t|[ ]{1," + spaces + "})");
+        // The same as deleteAll("^(\\t|[ ]{1," + spaces + "})"), without trying
+        // the expression at every character.
+        int length = text.length();
+        StringBuilder sb = null;
+        int lastIndex = 0;
+        int line = 0;
+        while (line < length) {
+            int end = line;
+            if (text.charAt(line) == '\t') {
+                end++;
+            } else {
+                while (end < length && end - line < spaces && text.charAt(end) == ' ') {
+                    end++;
+                }
+            }
+            if (end > line) {
+                if (sb == null) {
+                    sb = BufferPool.borrow(length + 16);
+                }
+                sb.append(text, lastIndex, line);
+                lastIndex = end;
+            }
+            while (end < length && !endsLine(text, end)) {
+                end++;
+            }
+            line = end + 1;
+        }
+        if (sb == null) {
+            return this;
+        }
+        sb.append(text, lastIndex, length);
+        swap(sb);
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if the character at <code>i</code> ends a line,
+     * as far as <code>^</code> is concerned.
+     */
+    private static boolean endsLine(CharSequence chars, int i) {
+        char c = chars.charAt(i);
+        if (c == '\r') {
+            return i + 1 == chars.length() || chars.charAt(i + 1) != '\n';
+        }
+        return c == '\n' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
     /**
@@ -193,7 +346,16 @@ public class TextEditor {
      * @return
      */
     public TextEditor trim() {
-        text = new StringBuilder(text.toString().trim());
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int start = 0;
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        text.setLength(end);
+        text.delete(0, start);
         return this;
     }
 
@@ -207,7 +369,7 @@ public class TextEditor {
         for (int i = 0; i < spaces; i++) {
             sb.append(' ');
         }
-        return replaceAll("^", sb.toString());
+        return replaceAll(LINE_START, sb.toString());
     }
 
     /**
@@ -218,30 +380,81 @@ public class TextEditor {
         text.append(s);
     }
 
+    /**
+     * Mark up bold text, then italic text, as
+     * {@link MarkdownProcessor#runSpanGamut(TextEditor)} does.
+     */
+    TextEditor emphasize() {
+        if (!Emphasis.hasDelimiters(text)) {
+            return this;
+        }
+        StringBuilder strong = BufferPool.borrow(text.length() + 32);
+        Emphasis.strong(text, strong);
+        StringBuilder em = BufferPool.borrow(strong.length() + 32);
+        Emphasis.em(strong, em);
+        BufferPool.giveBack(strong);
+        swap(em);
+        return this;
+    }
+
+    /**
+     * Replace each block of HTML of the given kind with what
+     * <code>protector</code> encodes it as, with a blank line either side.
+     */
+    TextEditor protectHtmlBlocks(HtmlBlockFinder.Kind kind, int lessThanTab, CharacterProtector protector) {
+        HtmlBlockFinder blocks = new HtmlBlockFinder(text, kind, lessThanTab);
+        if (!blocks.find()) {
+            return this;
+        }
+        StringBuilder sb = BufferPool.borrow(text.length() + 16);
+        int lastIndex = 0;
+        do {
+            String literal = text.substring(blocks.start(), blocks.end());
+            sb.append(text, lastIndex, blocks.start());
+            sb.append("\n\n").append(protector.encode(literal)).append("\n\n");
+            lastIndex = blocks.end();
+        } while (blocks.find());
+        sb.append(text, lastIndex, text.length());
+        swap(sb);
+        return this;
+    }
+
+    /**
+     * Replace each list in the text, as a {@link ListFinder} finds them, with the
+     * HTML <code>renderer</code> makes of it.
+     */
+    TextEditor replaceLists(boolean nested, int lessThanTab, ListFinder.Renderer renderer) {
+        ListFinder lists = new ListFinder(text, nested, lessThanTab);
+        if (!lists.find()) {
+            return this;
+        }
+        StringBuilder sb = BufferPool.borrow(text.length() + 16);
+        int lastIndex = 0;
+        do {
+            String list = text.substring(lists.listStart(), lists.end());
+            sb.append(text, lastIndex, lists.start());
+            sb.append(renderer.render(list, lists.ordered()));
+            lastIndex = lists.end();
+        } while (lists.find());
+        sb.append(text, lastIndex, text.length());
+        swap(sb);
+        return this;
+    }
+
     /**
      * Parse HTML tags, returning a Collection of HTMLToken objects.
      * @return
      */
     public Collection<HTMLToken> tokenizeHTML() {
         List<HTMLToken> tokens = new ArrayList<HTMLToken>();
-        String nestedTags = nestedTagsRegex(6);
-
-        Pattern p = Pattern.compile("" +
-                "(?s:<!(--.*?--\\s*)+>)" +
-                "|" +
-                "(?s:<\\?.*?\\?>)" +
-                "|" +
-                nestedTags +
-                "", Pattern.CASE_INSENSITIVE);
-
-        Matcher m = p.matcher(text);
+        HtmlTokenizer tags = new HtmlTokenizer(text);
         int lastPos = 0;
-        while (m.find()) {
-            if (lastPos < m.start()) {
-                tokens.add(HTMLToken.text(text.substring(lastPos, m.start())));
+        while (tags.find()) {
+            if (lastPos < tags.start()) {
+                tokens.add(HTMLToken.text(text.substring(lastPos, tags.start())));
             }
-            tokens.add(HTMLToken.tag(text.substring(m.start(), m.end())));
-            lastPos = m.end();
+            tokens.add(HTMLToken.tag(text.substring(tags.start(), tags.end())));
+            lastPos = tags.end();
         }
         if (lastPos < text.length()) {
             tokens.add(HTMLToken.text(text.substring(lastPos, text.length())));
@@ -251,16 +464,30 @@ public class TextEditor {
     }
 
     /**
-     * Regex to match a tag, possibly with nested tags such as <a href="<MTFoo>">.
-     *
-     * @param depth - How many levels of tags-within-tags to allow.  The example <a href="<MTFoo>"> has depth 2.
+     * Escape the characters which <code>escaper</code> escapes, but only within
+     * HTML tags, comments and processing instructions, as found by
+     * {@link #tokenizeHTML()}.
      */
-    private String nestedTagsRegex(int depth) {
-        if (depth == 0) {
-            return "";
-        } else {
-            return "(?:<[a-z/!$](?:[^<>]|" + nestedTagsRegex(depth - 1) + ")*>)";
+    TextEditor escapeTags(Escaper escaper) {
+        HtmlTokenizer tags = new HtmlTokenizer(text);
+        StringBuilder sb = null;
+        int lastPos = 0;
+        while (tags.find()) {
+            if (escaper.indexOfSpecial(text, tags.start(), tags.end()) == tags.end()) {
+                continue;
+            }
+            if (sb == null) {
+                sb = BufferPool.borrow(text.length() + text.length() / 8 + 16);
+            }
+            sb.append(text, lastPos, tags.start());
+            escaper.escape(text, tags.start(), tags.end(), sb);
+            lastPos = tags.end();
         }
+        if (sb != null) {
+            sb.append(text, lastPos, text.length());
+            swap(sb);
+        }
+        return this;
     }
 
     /**
@@ -278,4 +505,11 @@ public class TextEditor {
     public boolean isEmpty() {
         return text.length() == 0;
     }
+
+    /**
+     * @return the number of characters in the buffer.
+     */
+    public int length() {
+        return text.length();
+    }
 }
@@ -36,6 +36,16 @@ public class CharacterProtectorTest {
         assertEquals(3, tokens.size());
     }
 
+    @Test
+    public void testSize() {
+        assertEquals(0, characterProtector.size());
+
+        characterProtector.encode("<br/>");
+        characterProtector.encode("<hr/>");
+        characterProtector.encode("<br/>");
+        assertEquals(2, characterProtector.size());
+    }
+
     @Test(expected=UnsupportedOperationException.class)
     public void testGetAllEncodedTokensCanNotModified1() {
         Collection tokens = characterProtector.getAllEncodedTokens();
@@ -0,0 +1,385 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.markdownj.MarkdownProcessor;
+
+/**
+ * Checks how the time to render each Markdown construct grows with the size of
+ * the input.  Each test renders a document at four sizes, doubling each time,
+ * fits a straight line through the log of the lengths and the log of the times,
+ * and fails if the slope of that line - the exponent of the growth - is more
+ * than the bound for the construct.
+ * <p>
+ * Constructs which render in linear time are held to {@link #LINEAR}, which
+ * leaves room for noisy timings but not for quadratic growth.  A few
+ * constructs are known to be worse than that; they are held to
+ * {@link #QUADRATIC} for now, so that they at least don't get worse, and
+ * the comment on each test says why.
+ * <p>
+ * Each test is run through every {@link Engine}.  The tests go by timings, which
+ * a busy machine can throw off, so they are left out of the default build; run
+ * them with <code>mvn -Pcomplexity test</code>.
+ */
+@RunWith(value = Parameterized.class)
+public class ComplexityTest {
+
+    /** The bound for constructs that should take linear time. */
+    protected static final double LINEAR = 1.5;
+
+    /** The bound for constructs that are known to take quadratic time. */
+    protected static final double QUADRATIC = 2.5;
+
+    private static final int SIZES = 4;
+    private static final int RUNS = 3;
+    private static final long WARM_UP_NANOS = 200L * 1000 * 1000;
+    private static final long MIN_NANOS = 10L * 1000 * 1000;
+    private static final long MAX_NANOS = 2000L * 1000 * 1000;
+    private static final long STACK_SIZE = 64L * 1024 * 1024;
+
+    private final Engine engine;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Engine.withEach(Collections.singletonList(new Object[0]));
+    }
+
+    public ComplexityTest(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Generates a document containing <code>n</code> of some construct.
+     */
+    protected static abstract class Input {
+        abstract String generate(int n);
+    }
+
+    @Test
+    public void paragraphs() {
+        assertGrowth("paragraphs", 250, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("Some *text* and **more** text, `code`, [a](/b).\n\n", n);
+            }
+        });
+    }
+
+    @Test
+    public void longParagraph() {
+        assertGrowth("longParagraph", 40, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("word *em* __strong__ ", n) + "\n";
+            }
+        });
+    }
+
+    @Test
+    public void unclosedEmphasis() {
+        assertGrowth("unclosedEmphasis", 100, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("*a _b ", n) + "\n";
+            }
+        });
+    }
+
+    @Test
+    public void listItems() {
+        assertGrowth("listItems", 500, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("* item *em*\n", n) + "\n";
+            }
+        });
+    }
+
+    @Test
+    public void looseListItems() {
+        assertGrowth("looseListItems", 150, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("* item *em*\n\n", n);
+            }
+        });
+    }
+
+    // The length of the list grows with the square of its depth, so it is nested
+    // sqrt(n) deep, to keep the sizes doubling.
+    @Test
+    public void nestedLists() {
+        assertGrowth("nestedLists", 200, LINEAR, new Input() {
+            String generate(int n) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < Math.sqrt(n); i++) {
+                    text.append(repeat("    ", i)).append("* level ").append(i).append("\n");
+                }
+                return text.toString();
+            }
+        });
+    }
+
+    @Test
+    public void deepListItems() {
+        assertGrowth("deepListItems", 100, LINEAR, new Input() {
+            String generate(int n) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < n; i++) {
+                    text.append(repeat("    ", i % 24)).append("* item ").append(i).append("\n");
+                }
+                return text.toString();
+            }
+        });
+    }
+
+    // A known gap: each level of the quote runs runBlockGamut() over everything
+    // inside it, so the time grows with the depth times the length, which is
+    // n^1.5 here.  Rendering that without the recursion would take a parser for
+    // blockquotes like the one for lists.
+    @Test
+    public void nestedBlockquotes() {
+        assertGrowth("nestedBlockquotes", 100, QUADRATIC, new Input() {
+            String generate(int n) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 1; i <= Math.sqrt(n); i++) {
+                    text.append(repeat(">", i)).append(" level ").append(i).append("\n\n");
+                }
+                return text.toString();
+            }
+        });
+    }
+
+    @Test
+    public void htmlBlocks() {
+        assertGrowth("htmlBlocks", 500, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("<div>\ntext\n</div>\n\n", n);
+            }
+        });
+    }
+
+    @Test
+    public void unclosedHtmlBlock() {
+        assertGrowth("unclosedHtmlBlock", 400, LINEAR, new Input() {
+            String generate(int n) {
+                return "<div>\n" + repeat("text\n\n", n);
+            }
+        });
+    }
+
+    @Test
+    public void unclosedTags() {
+        assertGrowth("unclosedTags", 300, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("<a <b title=\"x\"> ", n) + "\n";
+            }
+        });
+    }
+
+    @Test
+    public void unclosedHtmlBlocks() {
+        assertGrowth("unclosedHtmlBlocks", 300, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("<div>\ntext\n\n", n);
+            }
+        });
+    }
+
+    // A stray closing tag holds together only the blocks around it, not the rest
+    // of the document.
+    @Test
+    public void strayClosingTag() {
+        assertGrowth("strayClosingTag", 250, LINEAR, new Input() {
+            String generate(int n) {
+                return "* item\n</ul>\n\n" + repeat("Some *text* and `code`.\n\n", n);
+            }
+        });
+    }
+
+    @Test
+    public void codeBlocks() {
+        assertGrowth("codeBlocks", 100, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("    code\n\ntext\n\n", n);
+            }
+        });
+    }
+
+    @Test
+    public void referenceLinks() {
+        assertGrowth("referenceLinks", 150, LINEAR, new Input() {
+            String generate(int n) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < n; i++) {
+                    text.append("[link ").append(i).append("][").append(i).append("]\n\n");
+                    text.append("[").append(i).append("]: /url/").append(i).append("\n\n");
+                }
+                return text.toString();
+            }
+        });
+    }
+
+    @Test
+    public void blockquotes() {
+        assertGrowth("blockquotes", 150, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("> quoted *text*\n\n", n);
+            }
+        });
+    }
+
+    @Test
+    public void headers() {
+        assertGrowth("headers", 250, LINEAR, new Input() {
+            String generate(int n) {
+                return repeat("# Header\n\ntext\n\n", n);
+            }
+        });
+    }
+
+    /**
+     * Render the input at sizes <code>n</code>, <code>2n</code>, <code>4n</code>
+     * and <code>8n</code>, and check how the time it takes grows with the length of
+     * the document.  (For nested constructs the length grows faster than the depth.)
+     * The input is rendered for a while first so that nothing is timed before it
+     * has been compiled.  Then <code>n</code> is doubled, if need be, until the
+     * smallest document takes long enough to time reliably, and the largest sizes
+     * are left out if they would take too long.
+     */
+    protected void assertGrowth(String construct, final int n, double bound, final Input input) {
+        final MarkdownProcessor processor = engine.createProcessor();
+        final int[] lengths = new int[SIZES];
+        final long[] times = new long[SIZES];
+        final int[] measured = new int[1];
+        final Throwable[] failure = new Throwable[1];
+        // The regular expressions recurse for each line they match, so give them
+        // plenty of stack: it's the time that is being measured here, not the depth.
+        Thread timer = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    String warmUp = input.generate(n);
+                    long end = System.nanoTime() + WARM_UP_NANOS;
+                    do {
+                        engine.markdown(processor, warmUp);
+                    } while (System.nanoTime() < end);
+                    int size = n;
+                    while (time(engine, processor, input.generate(size)) < MIN_NANOS) {
+                        size *= 2;
+                    }
+                    // The chosen size is timed again below, with the others.
+                    for (int i = 0; i < SIZES; i++) {
+                        // Going by the growth so far, how long would the next size take?
+                        if (i >= 3 && times[i - 1] * (times[i - 1] / (double) times[i - 2]) > MAX_NANOS) {
+                            break;
+                        }
+                        String document = input.generate(size << i);
+                        lengths[i] = document.length();
+                        times[i] = time(engine, processor, document);
+                        measured[0] = i + 1;
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, construct, STACK_SIZE);
+        timer.start();
+        try {
+            timer.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+
+        double exponent = slope(lengths, times, measured[0]);
+        StringBuilder message = new StringBuilder(construct).append(" grows as n^");
+        message.append(String.format("%.2f", exponent)).append(":");
+        for (int i = 0; i < measured[0]; i++) {
+            message.append(String.format(" %d chars in %.1fms", lengths[i], times[i] / 1e6));
+        }
+        assertTrue(message.toString(), exponent <= bound);
+    }
+
+    /**
+     * The shortest of several runs, which is the one least disturbed by garbage
+     * collection and anything else running on the machine.
+     */
+    private static long time(Engine engine, MarkdownProcessor processor, String text) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            engine.markdown(processor, text);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * The slope of the least-squares line through (log length, log time).
+     */
+    private static double slope(int[] lengths, long[] times, int count) {
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < count; i++) {
+            meanX += Math.log(lengths[i]) / count;
+            meanY += Math.log(Math.max(times[i], 1)) / count;
+        }
+        double xy = 0;
+        double xx = 0;
+        for (int i = 0; i < count; i++) {
+            double x = Math.log(lengths[i]) - meanX;
+            xy += x * (Math.log(Math.max(times[i], 1)) - meanY);
+            xx += x * x;
+        }
+        return xy / xx;
+    }
+
+    protected static String repeat(String s, int n) {
+        StringBuilder result = new StringBuilder(s.length() * n);
+        for (int i = 0; i < n; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+}
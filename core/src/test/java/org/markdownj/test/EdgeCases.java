@@ -40,6 +40,7 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import org.markdownj.MarkdownProcessor;
+import org.markdownj.TextEditor;
 
 public class EdgeCases {
     private MarkdownProcessor m;
@@ -64,6 +65,48 @@ public class EdgeCases {
         assertEquals("\n", m.markdown(null));
     }
 
+    @Test
+    public void testNoncharactersAreNotTreatedAsEscapes() {
+        assertEquals("<p>a\uFFFDb</p>\n", m.markdown("a\uFDD0b"));
+    }
+
+    @Test
+    public void testGamutsOutsideMarkdown() {
+        // Neither gamut may depend on state that only markdown() sets up.
+        String blocks = m.runBlockGamut(new TextEditor("# Head\n\n<div>\nx\n</div>\n\n*em*\n")).toString();
+        assertTrue(blocks, blocks.contains("<h1>Head</h1>"));
+        assertTrue(blocks, blocks.contains("<p><em>em</em></p>"));
+        assertEquals("<em>em</em> &amp; <b>x</b>", m.runSpanGamut(new TextEditor("*em* & <b>x</b>")).toString());
+    }
+
+    @Test
+    public void testLessThanBeforeEscape() {
+        // The placeholder for an escaped character isn't a letter, so the '<' is
+        // always encoded and never starts a tag.
+        assertEquals("<p>&lt;*<em>a</em> b*</p>\n", m.markdown("<\\*_a_ b\\*"));
+        assertEquals("<p>&lt;_<em>x</em> &lt;_y_></p>\n", m.markdown("<\\__x_ <\\_y_>"));
+    }
+
+    @Test
+    public void testAmpersandsAndAngleBrackets() {
+        assertEquals("<p>&copy; &#169; &amp;c &amp;#; &lt; 3 &lt;= <b>x</b></p>\n",
+                m.markdown("&copy; &#169; &c &#; < 3 <= <b>x</b>"));
+    }
+
+    @Test
+    public void testBackslashEscapes() {
+        assertEquals("<p>\\*a* \\ \\q `b` <em>c</em></p>\n", m.markdown("\\\\\\*a\\* \\ \\q \\`b\\` *c*"));
+        assertEquals("<p><code>&lt;a href=\"x\"&gt;\\*_{}[]&amp;amp;</code></p>\n",
+                m.markdown("`<a href=\"x\">\\*_{}[]&amp;`"));
+    }
+
+    @Test
+    public void testEscapedUnderscoresInEmailAddress() {
+        String html = m.markdown("<first_last@example.com>");
+        assertTrue(html.startsWith("<p><a href=\""));
+        assertFalse(html.contains("\uFDD3"));
+    }
+
     @Test
     public void testSplitAssumption() {
         // In Perl, split(/x/, "") returns the empty string.
@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+package org.markdownj.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.markdownj.MarkdownProcessor;
+
+/**
+ * The ways of rendering Markdown that the test files are run through.  Each of
+ * them should give exactly the same HTML.
+ */
+enum Engine {
+
+    /** The block and span gamuts, over the whole document at once. */
+    DEFAULT,
+
+    /** The line-oriented block parser. */
+    LINE_PARSER {
+        @Override
+        MarkdownProcessor createProcessor() {
+            MarkdownProcessor processor = new MarkdownProcessor();
+            processor.setLineParser(true);
+            return processor;
+        }
+    },
+
+    /** The single-pass inline lexer. */
+    INLINE_LEXER {
+        @Override
+        MarkdownProcessor createProcessor() {
+            MarkdownProcessor processor = new MarkdownProcessor();
+            processor.setInlineLexer(true);
+            return processor;
+        }
+    },
+
+    /** The streaming API, reading from a Reader and writing to an Appendable. */
+    STREAMING {
+        @Override
+        String markdown(MarkdownProcessor markup, String text) throws IOException {
+            StringBuilder html = new StringBuilder();
+            markup.markdown(new StringReader(text), html);
+            return html.toString();
+        }
+    };
+
+    MarkdownProcessor createProcessor() {
+        return new MarkdownProcessor();
+    }
+
+    String markdown(MarkdownProcessor markup, String text) throws IOException {
+        return markup.markdown(text);
+    }
+
+    /**
+     * Every engine paired with every set of parameters of a test.
+     */
+    static Collection<Object[]> withEach(Collection<Object[]> parameters) {
+        List<Object[]> list = new ArrayList<Object[]>();
+        for (Engine engine : values()) {
+            for (Object[] p : parameters) {
+                Object[] withEngine = new Object[p.length + 1];
+                System.arraycopy(p, 0, withEngine, 0, p.length);
+                withEngine[p.length] = engine;
+                list.add(withEngine);
+            }
+        }
+        return list;
+    }
+}
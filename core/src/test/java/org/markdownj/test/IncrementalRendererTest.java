@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.test;
+
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.IncrementalRenderer;
+import org.markdownj.IncrementalRenderer.Change;
+import org.markdownj.MarkdownProcessor;
+
+public class IncrementalRendererTest {
+
+    @Test
+    public void testEditOneParagraph() {
+        IncrementalRenderer editor = new IncrementalRenderer(new MarkdownProcessor());
+        editor.setText("# Title\n\nSome *text*\n\nMore text\n");
+        assertEquals("<h1>Title</h1>\n\n<p>Some <em>text</em></p>\n\n<p>More text</p>\n", editor.getHtml());
+
+        List<Change> changes = editor.edit(14, 0, "new ");
+        assertEquals("Some new *text*", editor.getText().substring(9, 24));
+        assertEquals(1, changes.size());
+        assertEquals(1, changes.get(0).getIndex());
+        assertEquals(1, changes.get(0).getRemoved());
+        assertEquals("<p>Some new <em>text</em></p>", changes.get(0).getHtml().get(0));
+        assertEquals("<h1>Title</h1>\n\n<p>Some new <em>text</em></p>\n\n<p>More text</p>\n", editor.getHtml());
+    }
+
+    @Test
+    public void testSplitParagraph() {
+        IncrementalRenderer editor = new IncrementalRenderer(new MarkdownProcessor());
+        editor.setText("one two\n");
+        List<Change> changes = editor.edit(3, 1, "\n\n");
+        assertEquals(1, changes.size());
+        assertEquals(0, changes.get(0).getIndex());
+        assertEquals(1, changes.get(0).getRemoved());
+        assertEquals(2, changes.get(0).getHtml().size());
+        assertEquals("<p>one</p>\n\n<p>two</p>\n", editor.getHtml());
+    }
+
+    @Test
+    public void testChangedLinkDefinition() {
+        IncrementalRenderer editor = new IncrementalRenderer(new MarkdownProcessor());
+        editor.setText("[a][1]\n\nplain\n\n[1]: /one\n");
+        assertEquals("<p><a href=\"/one\">a</a></p>\n\n<p>plain</p>\n", editor.getHtml());
+
+        List<Change> changes = editor.edit(editor.getText().length() - 4, 3, "two");
+        assertEquals("<p><a href=\"/two\">a</a></p>\n\n<p>plain</p>\n", editor.getHtml());
+        assertEquals(2, changes.size());
+        assertEquals(0, changes.get(0).getIndex());
+        assertEquals("<p><a href=\"/two\">a</a></p>", changes.get(0).getHtml().get(0));
+        // "plain" and the definition below it are one block.
+        assertEquals(1, changes.get(1).getIndex());
+    }
+
+    @Test
+    public void testSameAsMarkdown() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        IncrementalRenderer editor = new IncrementalRenderer(m);
+        String[] texts = {
+            "<div>\n\n*in*\n\n</div>\n\nafter\n",
+            "-   \n\nfoo\n",
+            "<hr\n\n/>\n\nafter\n",
+            "<ul id=\"menu\">\n<li>one</li>\n</ul>\n\n* two\n\n<pre>\n\n</pre>\n",
+            "* one\n\n* two\n\n        code\n\n> quote\n",
+            "text\n</pre>\n\n* item\n",
+            "",
+        };
+        for (String text : texts) {
+            editor.setText(text);
+            assertEquals(text, m.markdown(text), editor.getHtml());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+package org.markdownj.test;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+
+public class InlineLexerTest {
+
+    private String lex(String text) {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setInlineLexer(true);
+        return m.markdown(text);
+    }
+
+    private void assertSameAsGamut(String text) {
+        assertEquals(new MarkdownProcessor().markdown(text), lex(text));
+    }
+
+    @Test
+    public void testAutoLinkInsideTag() {
+        assertSameAsGamut("<a href=\"<http://example.com/>\">x</a>");
+    }
+
+    @Test
+    public void testCodeSpanDoesNotEndInsideTag() {
+        assertSameAsGamut("`a <span title=\"`\">b</span>");
+        assertFalse(lex("`a <span title=\"`\">b</span>").contains("<code>"));
+    }
+
+    @Test
+    public void testTagClosedAfterAutoLink() {
+        // The angle bracket of the link closes the tag left open by "<b", so the
+        // underscores of "c_d" are inside it.
+        assertSameAsGamut("__<b <i>`< <http://a.com/>`c_d`>");
+    }
+
+    @Test
+    public void testLineBreakInsideTag() {
+        assertSameAsGamut("<a title=\"x  \ny\">z</a>");
+    }
+
+    @Test
+    public void testLessThanBeforeComment() {
+        assertSameAsGamut(" <i**b**  \n<<!-- c -->>");
+    }
+
+    @Test
+    public void testBracketsAroundLink() {
+        // The span gamut's pattern starts the link at the first bracket; the lexer
+        // matches the link's own brackets.
+        assertEquals("<p><a href=\"/u\">[link</a></p>\n", new MarkdownProcessor().markdown("[[link](/u)"));
+        assertEquals("<p>[<a href=\"/u\">link</a></p>\n", lex("[[link](/u)"));
+    }
+}
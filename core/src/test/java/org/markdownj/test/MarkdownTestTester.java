@@ -59,10 +59,11 @@ public class MarkdownTestTester {
 
     String test;
     String dir;
+    Engine engine;
 
-    @Parameters(name = "{index}: {1}")
+    @Parameters(name = "{index}: {1} ({2})")
     public static Collection<Object[]> markdownTests() {
-        List list = new ArrayList<Object[]>();
+        List<Object[]> list = new ArrayList<Object[]>();
         URL fileUrl = MarkdownTestTester.class.getResource(MARKDOWN_TEST_DIR);
         File dir;
         try {
@@ -81,20 +82,21 @@ public class MarkdownTestTester {
             }
         }
 
-        return list;
+        return Engine.withEach(list);
     }
 
-    public MarkdownTestTester(String dir, String test) {
+    public MarkdownTestTester(String dir, String test, Engine engine) {
         this.test = test;
         this.dir = dir;
+        this.engine = engine;
     }
 
     @Test
     public void runTest() throws IOException {
         String testText = slurp(dir + File.separator + test + ".text");
         String htmlText = slurp(dir + File.separator + test + ".html");
-        MarkdownProcessor markup = new MarkdownProcessor();
-        String markdownText = markup.markdown(testText);
+        MarkdownProcessor markup = engine.createProcessor();
+        String markdownText = engine.markdown(markup, testText);
         assertEquals(test, htmlText.trim(), markdownText.trim());
     }
 
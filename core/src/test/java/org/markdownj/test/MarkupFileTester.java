@@ -60,12 +60,14 @@ public class MarkupFileTester {
         "/dingus.txt",
         "/paragraphs.txt",
         "/snippets.txt",
-        "/lists.txt"
+        "/lists.txt",
+        "/blocks.txt"
     };
 
     TestResultPair pair;
+    Engine engine;
 
-    @Parameters
+    @Parameters(name = "{index}: {0} ({1})")
     public static Collection<Object[]> testResultPairs() throws IOException {
         List<TestResultPair> fullResultPairList = new ArrayList<TestResultPair>();
         for (String filename : TEST_FILENAMES) {
@@ -76,11 +78,12 @@ public class MarkupFileTester {
         for (TestResultPair p : fullResultPairList) {
             testResultPairs.add(new Object[] { p });
         }
-        return testResultPairs;
+        return Engine.withEach(testResultPairs);
     }
 
-    public MarkupFileTester(TestResultPair pair) {
+    public MarkupFileTester(TestResultPair pair, Engine engine) {
         this.pair = pair;
+        this.engine = engine;
     }
 
     public static List<TestResultPair> newTestResultPairList(String filename) throws IOException {
@@ -160,8 +163,8 @@ public class MarkupFileTester {
     }
 
     @Test
-    public void runTest() {
-        MarkdownProcessor markup = new MarkdownProcessor();
-        assertEquals(pair.toString(), pair.getResult().trim(), markup.markdown(pair.getTest()).trim());
+    public void runTest() throws IOException {
+        MarkdownProcessor markup = engine.createProcessor();
+        assertEquals(pair.toString(), pair.getResult().trim(), engine.markdown(markup, pair.getTest()).trim());
     }
 }
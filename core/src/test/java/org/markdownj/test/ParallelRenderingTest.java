@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+
+public class ParallelRenderingTest {
+
+    private String document;
+
+    @Before
+    public void readDocument() throws IOException {
+        Reader in = new InputStreamReader(getClass().getResourceAsStream(
+                "/MarkdownTest/Markdown Documentation - Syntax.text"), "UTF-8");
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            text.append(buffer, 0, n);
+        }
+        in.close();
+        document = text.toString();
+    }
+
+    private String render(boolean lineParser, Executor executor) {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setLineParser(lineParser);
+        m.setExecutor(executor);
+        m.setParallelThreshold(0);
+        return m.markdown(document);
+    }
+
+    @Test
+    public void testSameHtmlAsOneThread() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(render(false, null), render(false, executor));
+            assertEquals(render(true, null), render(true, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectingExecutor() {
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        assertEquals(render(false, null), render(false, rejecting));
+        assertEquals(render(true, null), render(true, rejecting));
+    }
+
+    @Test
+    public void testRenderingOnTheExecutorItUses() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> html = executor.submit(new Callable<String>() {
+                public String call() {
+                    return render(true, executor);
+                }
+            });
+            assertEquals(render(true, null), html.get(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBelowThreshold() {
+        Executor failing = new Executor() {
+            public void execute(Runnable command) {
+                fail("a short document shouldn't be split up");
+            }
+        };
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setExecutor(failing);
+        assertEquals("<p>one</p>\n\n<p>two</p>\n", m.markdown("one\n\ntwo\n"));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+import org.markdownj.RenderCache;
+
+public class RenderCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        RenderCache cache = new RenderCache(100, 1024 * 1024);
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(cache);
+        assertEquals("<p><em>one</em></p>\n", m.markdown("*one*"));
+        assertEquals("<p><em>one</em></p>\n", m.markdown("*one*"));
+        assertEquals("<p>two</p>\n", m.markdown("two"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+        assertEquals(2, cache.size());
+        assertTrue(cache.getByteSize() > 0);
+    }
+
+    @Test
+    public void testSettingsArePartOfTheKey() {
+        RenderCache cache = new RenderCache(100, 1024 * 1024);
+        MarkdownProcessor plain = new MarkdownProcessor();
+        plain.setCache(cache);
+        MarkdownProcessor lexer = new MarkdownProcessor();
+        lexer.setInlineLexer(true);
+        lexer.setCache(cache);
+        plain.markdown("*one*");
+        lexer.markdown("*one*");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEvictsByEntries() {
+        RenderCache cache = new RenderCache(4, 1024 * 1024);
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(cache);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("<p>" + i + "</p>\n", m.markdown(Integer.toString(i)));
+        }
+        assertTrue(cache.size() <= 4);
+        assertEquals(100 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEvictsByBytes() {
+        RenderCache cache = new RenderCache(1000, 4096);
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(cache);
+        for (int i = 0; i < 100; i++) {
+            m.markdown(i + " and some more text to take up space");
+        }
+        assertTrue(cache.getByteSize() <= 4096);
+        assertTrue(cache.getEvictionCount() > 0);
+        m.markdown(new String(new char[10000]).replace('\0', 'x'));
+        assertTrue(cache.getByteSize() <= 4096);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedGoesFirst() {
+        RenderCache cache = new RenderCache(1, 1024 * 1024);
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(cache);
+        m.markdown("one");
+        m.markdown("two");
+        m.markdown("two");
+        m.markdown("one");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testSharedByThreads() throws Exception {
+        final RenderCache cache = new RenderCache(50, 1024 * 1024);
+        final MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(cache);
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            documents.add("*" + (i % 100) + "*");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = m.markdownAll(documents, executor);
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("<p><em>" + (i % 100) + "</em></p>\n", results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.size() <= 50);
+    }
+
+    @Test
+    public void testFragmentsReusedAcrossDocuments() {
+        RenderCache fragments = new RenderCache(100, 1024 * 1024);
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setFragmentCache(fragments);
+        assertEquals("<p><em>one</em></p>\n\n<p>two</p>\n", m.markdown("*one*\n\ntwo\n"));
+        assertEquals("<p><em>one</em></p>\n\n<p>three</p>\n", m.markdown("*one*\n\nthree\n"));
+        assertEquals(1, fragments.getHitCount());
+        assertEquals(3, fragments.getMissCount());
+    }
+
+    @Test
+    public void testFragmentsFollowLinkDefinitions() {
+        RenderCache fragments = new RenderCache(100, 1024 * 1024);
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setFragmentCache(fragments);
+        assertEquals("<p>See <a href=\"/a\">it</a>.</p>\n", m.markdown("See [it][x].\n\n[x]: /a\n"));
+        assertEquals("<p>See <a href=\"/a\">it</a>.</p>\n", m.markdown("See [it][x].\n\n[x]: /a\n"));
+        assertEquals("<p>See <a href=\"/b\" title=\"B\">it</a>.</p>\n",
+                m.markdown("See [it][x].\n\n[x]: /b \"B\"\n"));
+        assertEquals("<p>See [it][x].</p>\n", m.markdown("See [it][x].\n"));
+        assertEquals("<p>See <a href=\"/a\">it</a>.</p>\n", m.markdown("See [it][x].\n\n[x]: /a\n"));
+        assertEquals(1, fragments.getHitCount());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.IncrementalRenderer;
+import org.markdownj.MarkdownProcessor;
+import org.markdownj.RenderLimitException;
+
+public class RenderLimitTest {
+
+    // Each unclosed "[" is matched against the rest of the paragraph.  The inline
+    // lexer doesn't look at the clock while it does that, but does when it looks
+    // for emphasis afterwards.
+    private static String unclosedLinks(int n) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            text.append("[a _b ");
+        }
+        return text.append("\n").toString();
+    }
+
+    private static void assertTimesOut(MarkdownProcessor m, String text) {
+        long start = System.nanoTime();
+        try {
+            m.markdown(text);
+            fail("Expected a RenderLimitException");
+        } catch (RenderLimitException e) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("stopped after " + elapsed + "ms", elapsed < 5000);
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setTimeout(100, TimeUnit.MILLISECONDS);
+        assertEquals(100, m.getTimeout(TimeUnit.MILLISECONDS));
+        assertEquals("<p><em>a</em></p>\n", m.markdown("*a*"));
+        assertTimesOut(m, unclosedLinks(20000));
+    }
+
+    @Test
+    public void testTimeoutWithInlineLexer() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setLineParser(true);
+        m.setInlineLexer(true);
+        m.setTimeout(100, TimeUnit.MILLISECONDS);
+        assertTimesOut(m, unclosedLinks(20000));
+    }
+
+    @Test
+    public void testMaxInspections() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        String text = "Some *text* and **more** text.\n\n";
+        String html = m.markdown(text);
+        m.setMaxInspections(100000);
+        assertEquals(html, m.markdown(text));
+        m.setMaxInspections(1000);
+        try {
+            m.markdown(text);
+            fail("Expected a RenderLimitException");
+        } catch (RenderLimitException e) {
+            // Expected.
+        }
+        // Nothing is left over from the render which was stopped.
+        m.setMaxInspections(0);
+        assertEquals(html, m.markdown(text));
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setTimeout(100, TimeUnit.MILLISECONDS);
+        try {
+            m.markdown(new StringReader(unclosedLinks(20000)), new StringWriter());
+            fail("Expected a RenderLimitException");
+        } catch (RenderLimitException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            MarkdownProcessor m = new MarkdownProcessor();
+            m.setExecutor(executor);
+            m.setParallelThreshold(0);
+            m.setTimeout(100, TimeUnit.MILLISECONDS);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                text.append(unclosedLinks(2000)).append("\n");
+            }
+            assertTimesOut(m, text.toString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIncrementalRendererStartsAfresh() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        IncrementalRenderer editor = new IncrementalRenderer(m);
+        editor.setText("Some *text*\n\nMore text\n");
+        m.setMaxInspections(1000);
+        try {
+            editor.edit(0, 0, unclosedLinks(1000));
+            fail("Expected a RenderLimitException");
+        } catch (RenderLimitException e) {
+            // Expected.
+        }
+        m.setMaxInspections(0);
+        editor.edit(0, 0, "\n");
+        assertEquals(m.markdown(editor.getText()), editor.getHtml());
+    }
+}
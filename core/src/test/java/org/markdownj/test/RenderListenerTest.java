@@ -0,0 +1,191 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.test;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+import org.markdownj.RenderCache;
+import org.markdownj.RenderListener;
+import org.markdownj.RenderStage;
+import org.markdownj.RenderStatistics;
+
+public class RenderListenerTest {
+
+    private static final String DOCUMENT = "# Title\n\nSome *text* with a [link][1].\n\n"
+            + "<div>\nHTML\n</div>\n\n* one\n* two\n\n> quoted\n\n    code\n\n[1]: /url\n";
+
+    private static class Recorder implements RenderListener {
+        final Set<RenderStage> stages = Collections.synchronizedSet(EnumSet.noneOf(RenderStage.class));
+        final List<Integer> documents = Collections.synchronizedList(new ArrayList<Integer>());
+        int started;
+        int htmlLength;
+        int paragraphs;
+        int listDepth;
+        int htmlBlocks;
+
+        public void stageFinished(RenderStage stage, int length, long nanos) {
+            assertTrue(length >= 0);
+            assertTrue(nanos >= 0);
+            stages.add(stage);
+        }
+
+        public void documentStarted(int length) {
+            started++;
+        }
+
+        public void documentFinished(int length, int htmlLength, int paragraphs, int listDepth, int htmlBlocks, long nanos) {
+            documents.add(length);
+            this.htmlLength = htmlLength;
+            this.paragraphs = paragraphs;
+            this.listDepth = listDepth;
+            this.htmlBlocks = htmlBlocks;
+        }
+    }
+
+    @Test
+    public void testStagesOfTheGamuts() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        String html = m.markdown(DOCUMENT);
+        Recorder recorder = new Recorder();
+        m.setRenderListener(recorder);
+        assertEquals(html, m.markdown(DOCUMENT));
+        EnumSet<RenderStage> expected = EnumSet.allOf(RenderStage.class);
+        expected.remove(RenderStage.BLOCK_SCAN);
+        expected.remove(RenderStage.INLINE_LEXER);
+        assertEquals(expected, recorder.stages);
+        assertEquals(1, recorder.started);
+        assertEquals(Collections.singletonList(DOCUMENT.length()), recorder.documents);
+        assertEquals(html.length(), recorder.htmlLength);
+        // The text and the quote; the items of a tight list aren't paragraphs.
+        assertEquals(2, recorder.paragraphs);
+        assertEquals(1, recorder.listDepth);
+        // The <div>, and the blocks the gamut generates before looking for HTML again.
+        assertTrue(recorder.htmlBlocks > 1);
+    }
+
+    @Test
+    public void testStagesOfTheLineParserAndLexer() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setLineParser(true);
+        m.setInlineLexer(true);
+        Recorder recorder = new Recorder();
+        m.setRenderListener(recorder);
+        m.markdown(DOCUMENT);
+        assertTrue(recorder.stages.contains(RenderStage.BLOCK_SCAN));
+        assertTrue(recorder.stages.contains(RenderStage.INLINE_LEXER));
+        assertFalse(recorder.stages.contains(RenderStage.ITALICS_AND_BOLD));
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        MarkdownProcessor m = new MarkdownProcessor();
+        String html = m.markdown(DOCUMENT);
+        Recorder recorder = new Recorder();
+        m.setRenderListener(recorder);
+        StringBuilder out = new StringBuilder();
+        m.markdown(new StringReader(DOCUMENT), out);
+        assertEquals(html, out.toString());
+        assertEquals(1, recorder.started);
+        assertEquals(Collections.singletonList(DOCUMENT.length()), recorder.documents);
+        assertEquals(html.length(), recorder.htmlLength);
+        assertEquals(2, recorder.paragraphs);
+        assertEquals(1, recorder.listDepth);
+        assertTrue(recorder.htmlBlocks > 1);
+    }
+
+    @Test
+    public void testCacheHitsAreNotConversions() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(new RenderCache(10, 1024 * 1024));
+        Recorder recorder = new Recorder();
+        m.setRenderListener(recorder);
+        m.markdown(DOCUMENT);
+        m.markdown(DOCUMENT);
+        assertEquals(1, recorder.documents.size());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        MarkdownProcessor m = new MarkdownProcessor();
+        m.setCache(new RenderCache(10, 1024 * 1024));
+        RenderStatistics statistics = new RenderStatistics(m);
+        m.setRenderListener(statistics);
+        m.markdown(DOCUMENT);
+        m.markdown(DOCUMENT);
+        m.markdown("*other*");
+        m.markdown(new StringReader("*streamed*"), new StringBuilder());
+        assertEquals(3, statistics.getDocumentCount());
+        assertEquals(DOCUMENT.length() + "*other*".length() + "*streamed*".length(), statistics.getCharacterCount());
+        assertTrue(statistics.getHtmlBlockCount() > 1);
+        assertEquals(statistics.getHtmlBlockCount(), statistics.getMaxHtmlBlocks());
+        assertEquals(1, statistics.getCacheHitCount());
+        assertEquals(2, statistics.getCacheMissCount());
+        assertEquals(2, statistics.getCacheSize());
+        assertTrue(statistics.getStageCount(RenderStage.ITALICS_AND_BOLD) >= 2);
+        assertTrue(statistics.getMaxLatencyMillis() >= statistics.getAverageLatencyMillis());
+
+        long total = 0;
+        for (long count : statistics.getLatencyHistogram()) {
+            total += count;
+        }
+        assertEquals(3, total);
+        assertEquals(statistics.getLatencyBucketBoundsMillis().length + 1, statistics.getLatencyHistogram().length);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.markdownj:type=RenderStatistics,name=test");
+        server.registerMBean(statistics, name);
+        try {
+            assertEquals(3L, server.getAttribute(name, "DocumentCount"));
+            assertEquals(RenderStage.values().length, ((String[]) server.getAttribute(name, "StageNames")).length);
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "DocumentCount"));
+            assertEquals(0, statistics.getStageCount(RenderStage.ITALICS_AND_BOLD));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.markdownj.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+
+public class SharedProcessorTest {
+
+    @Test
+    public void testLinkDefinitionsDoNotOutliveTheDocument() {
+        MarkdownProcessor m = new MarkdownProcessor();
+        assertEquals("<p><a href=\"http://one.com/\">one</a></p>\n",
+                m.markdown("[one][]\n\n[one]: http://one.com/\n"));
+        assertEquals("<p>[one][]</p>\n", m.markdown("[one][]\n"));
+    }
+
+    @Test
+    public void testOneProcessorManyThreads() throws Exception {
+        final MarkdownProcessor m = new MarkdownProcessor();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return m.markdown("* [item][" + n + "]\n\n"
+                                + "    * <div>nested</div>\n\n"
+                                + "[" + n + "]: /" + n + "\n");
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                String html = results.get(i).get();
+                assertTrue(html, html.contains("<a href=\"/" + i + "\">item</a>"));
+                assertTrue(html, html.contains("<div>nested</div>"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMarkdownAllInOrder() throws Exception {
+        MarkdownProcessor m = new MarkdownProcessor();
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            documents.add("[" + i + "]\n\n[" + i + "]: /" + i + "\n");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = m.markdownAll(documents, executor);
+            assertEquals(500, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("<p><a href=\"/" + i + "\">" + i + "</a></p>\n", results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMarkdownAllReportsEachFailure() throws Exception {
+        MarkdownProcessor m = new MarkdownProcessor() {
+            @Override
+            public String markdown(String text) {
+                if (text.equals("fail")) {
+                    throw new IllegalStateException(text);
+                }
+                return super.markdown(text);
+            }
+        };
+        List<Future<String>> results = m.markdownAll(Arrays.asList("*one*", "fail", "two"), null);
+        assertEquals("<p><em>one</em></p>\n", results.get(0).get());
+        try {
+            results.get(1).get();
+            fail("expected the second document to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("<p>two</p>\n", results.get(2).get());
+    }
+}
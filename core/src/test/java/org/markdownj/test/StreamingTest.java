@@ -0,0 +1,116 @@
+package org.markdownj.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+
+public class StreamingTest {
+
+    private String stream(String text) throws IOException {
+        // Hand the text over a few characters at a time.
+        Reader in = new StringReader(text) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 3));
+            }
+        };
+        StringBuilder html = new StringBuilder();
+        new MarkdownProcessor().markdown(in, html);
+        return html.toString();
+    }
+
+    private void assertSameAsString(String text) throws IOException {
+        assertEquals(new MarkdownProcessor().markdown(text), stream(text));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertEquals("\n", stream(""));
+    }
+
+    @Test
+    public void testLinkDefinedAfterUse() throws IOException {
+        assertSameAsString("See [the site][site].\n\nMore text.\n\n[site]: http://example.com/ \"Example\"\n");
+    }
+
+    @Test
+    public void testLineEndings() throws IOException {
+        assertSameAsString("# Title\r\n\r\nOne\rtwo\r\n\r\n\tcode\twith tabs\r\n  \t \r\n* item\r");
+    }
+
+    @Test
+    public void testOtherLineSeparators() throws IOException {
+        // Regular expressions end a line at these too, so the spaces before them are
+        // a line of whitespace, and tabs after them line up from there.
+        assertSameAsString("One \t\u2028two\u2029 \n\tcode\u0085ab\tc\n");
+    }
+
+    @Test
+    public void testHtmlBlockRunsOnToClosingTag() throws IOException {
+        assertSameAsString("<div>one</div>\n\nAnd some text:\n\n<div>\n<div>two</div>\n</div>\n\nAfter.\n");
+    }
+
+    /**
+     * Counts the characters read before the first HTML is written.
+     */
+    private static class Counter extends StringReader implements Appendable {
+        private long read;
+        long readBeforeWrite = -1;
+
+        Counter(String text) {
+            super(text);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            read += Math.max(n, 0);
+            return n;
+        }
+
+        public Appendable append(CharSequence csq) {
+            if (readBeforeWrite < 0 && csq.length() > 0) {
+                readBeforeWrite = read;
+            }
+            return this;
+        }
+
+        public Appendable append(CharSequence csq, int start, int end) {
+            return append(csq.subSequence(start, end));
+        }
+
+        public Appendable append(char c) {
+            return append(String.valueOf(c));
+        }
+    }
+
+    private long readBeforeWrite(String first) throws IOException {
+        StringBuilder text = new StringBuilder(first);
+        for (int i = 0; i < 250000; i++) {
+            text.append("Paragraph.\n\n");
+        }
+        Counter counter = new Counter(text.toString());
+        new MarkdownProcessor().markdown(counter, counter);
+        return counter.readBeforeWrite;
+    }
+
+    @Test
+    public void testUndefinedShortcutDoesNotHoldBlocksBack() throws IOException {
+        assertTrue(readBeforeWrite("See [note].\n\n") < 64 * 1024);
+    }
+
+    @Test
+    public void testUndefinedReferenceHoldsBackBoundedBlocks() throws IOException {
+        // The input is three million characters long.
+        assertTrue(readBeforeWrite("See [note][].\n\n") < 2 * 1024 * 1024);
+    }
+
+    @Test
+    public void testUnclosedHtmlHoldsBackBoundedBlocks() throws IOException {
+        assertTrue(readBeforeWrite("<div>\n\n") < 2 * 1024 * 1024);
+        assertTrue(readBeforeWrite("<!-- comment\n\n") < 2 * 1024 * 1024);
+    }
+}
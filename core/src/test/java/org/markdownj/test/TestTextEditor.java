@@ -16,6 +16,53 @@ public class TestTextEditor {
 
         assertEquals("     ", new TextEditor("\t ").detabify().toString());
         assertEquals("        ", new TextEditor("\t \t").detabify().toString());
+
+        assertEquals("ab  c\n    d", new TextEditor("ab\tc\n\td").detabify().toString());
+        assertEquals("a\u2028  b", new TextEditor("a\u2028\tb").detabify(2).toString());
+    }
+
+    @Test
+    public void testReplaceAll() {
+        assertEquals("b-a b-a", new TextEditor("ab ab").replaceAll("(a)(b)", "$2-$1").toString());
+        assertEquals("$a \\", new TextEditor("a b").replaceAll("(\\w) b", "\\$$1 \\\\").toString());
+        // $12 refers to group 1 followed by "2" when there's no group 12.
+        assertEquals("x2", new TextEditor("x").replaceAll("(x)", "$12").toString());
+        // A group which didn't take part in the match is replaced by nothing.
+        assertEquals("<>", new TextEditor("a").replaceAll("a(b)?", "<$1>").toString());
+        assertEquals("unchanged", new TextEditor("unchanged").replaceAll("x", "y").toString());
+        String text = "some long line of text to be changed and changed again";
+        TextEditor editor = new TextEditor(text);
+        for (int i = 0; i < 10; i++) {
+            editor.replaceAll("changed", "altered").replaceAll("altered", "changed");
+        }
+        assertEquals(text, editor.toString());
+    }
+
+    @Test
+    public void testTokenizeHTML() {
+        assertEquals("[text: a , tag: <b title=\"<c>\">, text: d , tag: </b>]",
+                new TextEditor("a <b title=\"<c>\">d </b>").tokenizeHTML().toString());
+        assertEquals("[tag: <!-- x -- >, text: y, tag: <?php z ?>]",
+                new TextEditor("<!-- x -- >y<?php z ?>").tokenizeHTML().toString());
+        // An unclosed tag isn't a tag, but the tags inside it are.
+        assertEquals("[text: <a , tag: <b>, text:  <c]", new TextEditor("<a <b> <c").tokenizeHTML().toString());
+        // Tags nest six deep at most.
+        assertEquals("[tag: <a<a<a<a<a<a>>>>>>]", new TextEditor("<a<a<a<a<a<a>>>>>>").tokenizeHTML().toString());
+        assertEquals("[text: <a, tag: <a<a<a<a<a<a>>>>>>, text: >]",
+                new TextEditor("<a<a<a<a<a<a<a>>>>>>>").tokenizeHTML().toString());
+    }
+
+    @Test
+    public void testOutdent() {
+        assertEquals("a\n b\nc\n\td\n", new TextEditor("    a\n     b\n\tc\n\t\td\n").outdent().toString());
+        assertEquals("a\r\nb\rc\u2028d", new TextEditor(" a\r\n  b\r   c\u2028    d").outdent().toString());
+        assertEquals("  a\n", new TextEditor("    a\n").outdent(2).toString());
+    }
+
+    @Test
+    public void testTrim() {
+        assertEquals("a \n b", new TextEditor(" \n a \n b\t\n").trim().toString());
+        assertEquals("", new TextEditor(" \n ").trim().toString());
     }
 
 }
@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.jfr;
+
+import jdk.jfr.EventType;
+import org.markdownj.RenderListener;
+import org.markdownj.RenderStage;
+
+/**
+ * Records conversions as Java Flight Recorder events: an
+ * <code>org.markdownj.Render</code> event lasting the whole of each conversion, and
+ * an <code>org.markdownj.Stage</code> event for each stage of it.  Usage:
+ * <pre><code>
+ *     processor.setRenderListener(new JfrRenderListener());
+ * </code></pre>
+ * When an event type isn't enabled in any recording, which is always the case
+ * without one, nothing is allocated or recorded for it.
+ * <p>
+ * A processor has only one listener, so this can pass everything on to another
+ * one, such as a <code>RenderStatistics</code>.
+ */
+public final class JfrRenderListener implements RenderListener {
+    private static final EventType RENDER = EventType.getEventType(RenderEvent.class);
+    private static final EventType STAGE = EventType.getEventType(StageEvent.class);
+
+    private final RenderListener next;
+    private final ThreadLocal<RenderEvent> render = new ThreadLocal<RenderEvent>();
+
+    public JfrRenderListener() {
+        this(null);
+    }
+
+    /**
+     * @param next the listener to pass everything on to, or <code>null</code>.
+     */
+    public JfrRenderListener(RenderListener next) {
+        this.next = next;
+    }
+
+    public void documentStarted(int length) {
+        if (RENDER.isEnabled()) {
+            RenderEvent event = new RenderEvent();
+            event.begin();
+            render.set(event);
+        } else {
+            // Don't let a conversion which failed leave its event behind.
+            render.remove();
+        }
+        if (next != null) {
+            next.documentStarted(length);
+        }
+    }
+
+    public void stageFinished(RenderStage stage, int length, long nanos) {
+        if (STAGE.isEnabled()) {
+            StageEvent event = new StageEvent();
+            event.stage = stage.name();
+            event.length = length;
+            event.elapsed = nanos;
+            event.commit();
+        }
+        if (next != null) {
+            next.stageFinished(stage, length, nanos);
+        }
+    }
+
+    public void documentFinished(int length, int htmlLength, int paragraphs, int listDepth, int htmlBlocks, long nanos) {
+        RenderEvent event = render.get();
+        if (event != null) {
+            render.remove();
+            event.end();
+            if (event.shouldCommit()) {
+                event.length = length;
+                event.htmlLength = htmlLength;
+                event.paragraphs = paragraphs;
+                event.listDepth = listDepth;
+                event.htmlBlocks = htmlBlocks;
+                event.commit();
+            }
+        }
+        if (next != null) {
+            next.documentFinished(length, htmlLength, paragraphs, listDepth, htmlBlocks, nanos);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The conversion of one document by <code>MarkdownProcessor.markdown(String)</code>.
+ */
+@Name("org.markdownj.Render")
+@Label("Markdown Render")
+@Category("MarkdownJ")
+@Description("The conversion of one Markdown document to HTML")
+@StackTrace(false)
+final class RenderEvent extends Event {
+
+    @Label("Length")
+    @Description("The length of the document, in characters")
+    @DataAmount(DataAmount.BYTES)
+    int length;
+
+    @Label("HTML Length")
+    @Description("The length of the HTML, in characters")
+    @DataAmount(DataAmount.BYTES)
+    int htmlLength;
+
+    @Label("Paragraphs")
+    int paragraphs;
+
+    @Label("List Depth")
+    @Description("How deeply lists were nested, or 0 if there were none")
+    int listDepth;
+
+    @Label("HTML Blocks")
+    @Description("The number of blocks of HTML set aside, including generated ones")
+    int htmlBlocks;
+}
@@ -0,0 +1,120 @@
+/*
+Copyright (c) 2005, Pete Bevin.
+<http://markdownj.petebevin.com>
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+* Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+
+* Neither the name "Markdown" nor the names of its contributors may
+  be used to endorse or promote products derived from this software
+  without specific prior written permission.
+
+This software is provided by the copyright holders and contributors "as
+is" and any express or implied warranties, including, but not limited
+to, the implied warranties of merchantability and fitness for a
+particular purpose are disclaimed. In no event shall the copyright owner
+or contributors be liable for any direct, indirect, incidental, special,
+exemplary, or consequential damages (including, but not limited to,
+procurement of substitute goods or services; loss of use, data, or
+profits; or business interruption) however caused and on any theory of
+liability, whether in contract, strict liability, or tort (including
+negligence or otherwise) arising in any way out of the use of this
+software, even if advised of the possibility of such damage.
+
+*/
+
+
+package org.markdownj.jfr;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.markdownj.MarkdownProcessor;
+import org.markdownj.RenderStage;
+import org.markdownj.RenderStatistics;
+
+public class JfrRenderListenerTest {
+
+    private static final String DOCUMENT = "Some *text*\n\n* one\n    * two\n\nMore text\n";
+
+    private static List<RecordedEvent> record(MarkdownProcessor processor, boolean stages) throws Exception {
+        File file = File.createTempFile("markdownj", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable("org.markdownj.Render");
+            if (stages) {
+                recording.enable("org.markdownj.Stage");
+            }
+            recording.start();
+            processor.markdown(DOCUMENT);
+            recording.stop();
+            recording.dump(file.toPath());
+            recording.close();
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().startsWith("org.markdownj.")) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRenderEvent() throws Exception {
+        MarkdownProcessor processor = new MarkdownProcessor();
+        processor.setRenderListener(new JfrRenderListener());
+        String html = processor.markdown(DOCUMENT);
+        List<RecordedEvent> events = record(processor, false);
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("org.markdownj.Render", event.getEventType().getName());
+        assertEquals(DOCUMENT.length(), event.getInt("length"));
+        assertEquals(html.length(), event.getInt("htmlLength"));
+        assertEquals(2, event.getInt("paragraphs"));
+        assertEquals(2, event.getInt("listDepth"));
+    }
+
+    @Test
+    public void testStageEvents() throws Exception {
+        MarkdownProcessor processor = new MarkdownProcessor();
+        processor.setRenderListener(new JfrRenderListener());
+        List<RecordedEvent> events = record(processor, true);
+        boolean lists = false;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("org.markdownj.Stage")) {
+                assertTrue(event.getLong("elapsed") >= 0);
+                lists |= event.getString("stage").equals("LISTS");
+            }
+        }
+        assertTrue(lists);
+        assertTrue(events.size() > 20);
+    }
+
+    @Test
+    public void testPassesEventsOn() throws Exception {
+        MarkdownProcessor processor = new MarkdownProcessor();
+        RenderStatistics statistics = new RenderStatistics(processor);
+        processor.setRenderListener(new JfrRenderListener(statistics));
+        processor.markdown(DOCUMENT);
+        assertEquals(1, statistics.getDocumentCount());
+        assertTrue(statistics.getStageCount(RenderStage.LISTS) > 0);
+    }
+}